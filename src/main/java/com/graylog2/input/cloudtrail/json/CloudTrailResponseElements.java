@@ -18,9 +18,7 @@ package com.graylog2.input.cloudtrail.json;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.Maps;
-
-import java.util.Map;
+import org.graylog2.plugin.Message;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class CloudTrailResponseElements{
@@ -60,37 +58,32 @@ public class CloudTrailResponseElements{
 
     
 
-    public Map<String, Object> additionalFieldsAsMap() {
-        Map<String, Object> m = Maps.newHashMap();
-
-
+    public void addFieldsTo(Message m) {
        if (renewRole != null) {
-           m.put("renewRole", renewRole);
+           m.addField("renewRole", renewRole);
         }
 
        if (exitRole != null) {
-           m.put("exitRole", exitRole);
+           m.addField("exitRole", exitRole);
         }
        if (volumeId != null) {
-           m.put("volumeId", volumeId);
+           m.addField("volumeId", volumeId);
         }
        if (instanceId != null) {
-           m.put("instanceId", instanceId);
+           m.addField("instanceId", instanceId);
         }
        if (device != null) {
-           m.put("device", device);
+           m.addField("device", device);
         }
        if (consoleLogin != null) {
-           m.put("consoleLogin", consoleLogin);
+           m.addField("consoleLogin", consoleLogin);
         }
        if (status != null) {
-           m.put("status", status);
+           m.addField("status", status);
         }
        if (returnValue != null) {
-           m.put("returnValue", returnValue);
+           m.addField("returnValue", returnValue);
         }
-
-        return m;
     }
 
 }
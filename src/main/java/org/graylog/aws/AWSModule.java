@@ -18,6 +18,7 @@ package org.graylog.aws;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog.aws.config.AWSClientRegistry;
 import org.graylog.aws.config.AWSConfigurationResource;
 import org.graylog.aws.inputs.cloudtrail.CloudTrailCodec;
 import org.graylog.aws.inputs.cloudtrail.CloudTrailInput;
@@ -44,6 +45,7 @@ public class AWSModule extends PluginModule {
         addMessageInput(CloudTrailInput.class);
 
         bind(ObjectMapper.class).annotatedWith(AWSObjectMapper.class).toInstance(createObjectMapper());
+        bind(AWSClientRegistry.class).asEagerSingleton();
 
         if (!(configuration.isCloud() || isForwarder())) {
             // Instance name lookup
@@ -17,6 +17,7 @@
 package org.graylog.aws.auth;
 
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
@@ -27,6 +28,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog.aws.config.AWSPluginConfiguration;
 import org.graylog2.Configuration;
@@ -34,14 +36,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
 
 public class AWSAuthProvider implements AWSCredentialsProvider {
     private static final Logger LOG = LoggerFactory.getLogger(AWSAuthProvider.class);
     private final Configuration configuration;
 
     private final AWSCredentialsProvider credentials;
+    private final String identity;
 
     public AWSAuthProvider(Configuration configuration, AWSPluginConfiguration awsConfig) {
         this(configuration, awsConfig, null, null, null, null);
@@ -53,15 +58,63 @@ public class AWSAuthProvider implements AWSCredentialsProvider {
                            @Nullable String secretKey,
                            @Nullable String region,
                            @Nullable String assumeRoleArn) {
+        this(configuration, awsConfig, accessKey, secretKey, region, assumeRoleArn, null);
+    }
+
+    /**
+     * @param clientConfiguration the configuration of the STS client that assumes the role, SDK defaults if
+     *                            {@code null}
+     */
+    public AWSAuthProvider(Configuration configuration,
+                           AWSPluginConfiguration awsConfig,
+                           @Nullable String accessKey,
+                           @Nullable String secretKey,
+                           @Nullable String region,
+                           @Nullable String assumeRoleArn,
+                           @Nullable ClientConfiguration clientConfiguration) {
         this.configuration = configuration;
-        this.credentials = this.resolveAuthentication(awsConfig, accessKey, secretKey, region, assumeRoleArn);
+        this.identity = this.resolveIdentity(awsConfig, accessKey, secretKey, region, assumeRoleArn);
+        this.credentials = this.resolveAuthentication(awsConfig, accessKey, secretKey, region, assumeRoleArn, clientConfiguration);
+    }
+
+    /**
+     * Describes where the credentials of this provider come from. Providers with the same identity provide the same
+     * credentials. Secret keys are only included as a hash.
+     */
+    public String identity() {
+        return identity;
+    }
+
+    private String resolveIdentity(AWSPluginConfiguration config,
+                                   @Nullable String accessKey,
+                                   @Nullable String secretKey,
+                                   @Nullable String region,
+                                   @Nullable String assumeRoleArn) {
+        final String baseIdentity;
+        if (configuration.isCloud() || (!isNullOrEmpty(accessKey) && !isNullOrEmpty(secretKey))) {
+            baseIdentity = staticIdentity(accessKey, secretKey);
+        } else if (!isNullOrEmpty(config.accessKey()) && !isNullOrEmpty(config.secretKey(configuration.getPasswordSecret()))) {
+            baseIdentity = staticIdentity(config.accessKey(), config.secretKey(configuration.getPasswordSecret()));
+        } else {
+            baseIdentity = "default";
+        }
+
+        if (!isNullOrEmpty(assumeRoleArn) && !isNullOrEmpty(region)) {
+            return "role:" + assumeRoleArn + "@" + region + "/" + baseIdentity;
+        }
+        return baseIdentity;
+    }
+
+    private static String staticIdentity(@Nullable String accessKey, @Nullable String secretKey) {
+        return "static:" + accessKey + ":" + Hashing.sha256().hashString(nullToEmpty(secretKey), StandardCharsets.UTF_8);
     }
 
     private AWSCredentialsProvider resolveAuthentication(AWSPluginConfiguration config,
                                                          @Nullable String accessKey,
                                                          @Nullable String secretKey,
                                                          @Nullable String region,
-                                                         @Nullable String assumeRoleArn) {
+                                                         @Nullable String assumeRoleArn,
+                                                         @Nullable ClientConfiguration clientConfiguration) {
 
         AWSCredentialsProvider awsCredentials = configuration.isCloud() ?
                 getCloudAwsCredentialsProvider(accessKey, secretKey) :
@@ -69,7 +122,7 @@ public class AWSAuthProvider implements AWSCredentialsProvider {
 
         if (!isNullOrEmpty(assumeRoleArn) && !isNullOrEmpty(region)) {
             LOG.debug("Creating cross account assume role credentials");
-            return this.getSTSCredentialsProvider(awsCredentials, region, assumeRoleArn);
+            return this.getSTSCredentialsProvider(awsCredentials, region, assumeRoleArn, clientConfiguration);
         } else {
             return awsCredentials;
         }
@@ -96,18 +149,48 @@ public class AWSAuthProvider implements AWSCredentialsProvider {
         return new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
     }
 
-    private AWSCredentialsProvider getSTSCredentialsProvider(AWSCredentialsProvider awsCredentials, String region, String assumeRoleArn) {
-        AWSSecurityTokenService stsClient = AWSSecurityTokenServiceClientBuilder.standard()
-                .withRegion(region)
-                .withCredentials(awsCredentials)
-                .build();
-        String roleSessionName = String.format("API_KEY_%s@ACCOUNT_%s",
-                awsCredentials.getCredentials().getAWSAccessKeyId(),
-                stsClient.getCallerIdentity(new GetCallerIdentityRequest()).getAccount());
-        LOG.debug("Cross account role session name: " + roleSessionName);
-        return new STSAssumeRoleSessionCredentialsProvider.Builder(assumeRoleArn, roleSessionName)
-                .withStsClient(stsClient)
-                .build();
+    /**
+     * Assumed role sessions are shared by all providers with the same identity and the same STS client configuration,
+     * so the proxy and timeouts of one input never apply to the session of another. Starting the session, including
+     * the caller identity lookup for the session name, happens in the background.
+     */
+    private AWSCredentialsProvider getSTSCredentialsProvider(AWSCredentialsProvider awsCredentials, String region,
+                                                            String assumeRoleArn, @Nullable ClientConfiguration clientConfiguration) {
+        return AssumeRoleSessions.shared().provider(identity + " via " + clientConfigurationKey(clientConfiguration), () -> {
+            AWSSecurityTokenServiceClientBuilder stsClientBuilder = AWSSecurityTokenServiceClientBuilder.standard()
+                    .withRegion(region)
+                    .withCredentials(awsCredentials);
+            if (clientConfiguration != null) {
+                stsClientBuilder.withClientConfiguration(clientConfiguration);
+            }
+            AWSSecurityTokenService stsClient = stsClientBuilder.build();
+            String roleSessionName = String.format("API_KEY_%s@ACCOUNT_%s",
+                    awsCredentials.getCredentials().getAWSAccessKeyId(),
+                    stsClient.getCallerIdentity(new GetCallerIdentityRequest()).getAccount());
+            LOG.debug("Cross account role session name: " + roleSessionName);
+            return new AssumeRoleSessions.Session(
+                    new STSAssumeRoleSessionCredentialsProvider.Builder(assumeRoleArn, roleSessionName), stsClient);
+        });
+    }
+
+    /**
+     * Describes the settings of an STS client. Proxy passwords are only included as a hash.
+     */
+    private static String clientConfigurationKey(@Nullable ClientConfiguration c) {
+        if (c == null) {
+            return "defaults";
+        }
+        return String.join(",",
+                "protocol=" + c.getProtocol(),
+                "proxy=" + c.getProxyProtocol() + "://" + c.getProxyUsername() + "@" + c.getProxyHost() + ":" + c.getProxyPort(),
+                "proxyPassword=" + Hashing.sha256().hashString(nullToEmpty(c.getProxyPassword()), StandardCharsets.UTF_8),
+                "nonProxyHosts=" + c.getNonProxyHosts(),
+                "maxConnections=" + c.getMaxConnections(),
+                "connectionTtl=" + c.getConnectionTTL(),
+                "socketTimeout=" + c.getSocketTimeout(),
+                "requestTimeout=" + c.getRequestTimeout(),
+                "tcpKeepAlive=" + c.useTcpKeepAlive(),
+                "maxErrorRetry=" + c.getMaxErrorRetry());
     }
 
     @Override
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.auth;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares assumed role sessions between all {@link AWSAuthProvider}s that assume the same role with the same base
+ * credentials and the same STS client configuration, so restarting inputs does not hit STS again.
+ * <p>
+ * Sessions are started in the background as soon as a provider asks for them, and are refreshed in the background
+ * before they expire. Only a request that needs credentials before the first session has been started waits for it.
+ * Sessions that have not been used for a while are closed.
+ */
+class AssumeRoleSessions {
+    private static final Logger LOG = LoggerFactory.getLogger(AssumeRoleSessions.class);
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("aws-assume-role-%d")
+            .build();
+
+    private static final AssumeRoleSessions SHARED = new AssumeRoleSessions(1, TimeUnit.HOURS);
+
+    private final Cache<String, Session> sessions;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    AssumeRoleSessions(long expireAfterUnused, TimeUnit unit) {
+        this.sessions = CacheBuilder.newBuilder()
+                .expireAfterAccess(expireAfterUnused, unit)
+                .removalListener((RemovalNotification<String, Session> notification) -> notification.getValue().close())
+                .build();
+    }
+
+    static AssumeRoleSessions shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns credentials of the session with the given key, starting the session in the background if there is none.
+     *
+     * @param key     identifies the role, the base credentials the role is assumed with and the settings of the STS
+     *                client, because the session keeps using the client of whoever started it
+     * @param starter starts a session, called at most once at a time for a key
+     */
+    AWSCredentialsProvider provider(String key, Callable<Session> starter) {
+        background.execute(() -> {
+            try {
+                session(key, starter);
+            } catch (Exception e) {
+                LOG.warn("Could not assume AWS role for <{}>. Retrying when credentials are needed.", key, e);
+            }
+        });
+
+        return new AWSCredentialsProvider() {
+            @Override
+            public AWSCredentials getCredentials() {
+                return session(key, starter).credentialsProvider.getCredentials();
+            }
+
+            @Override
+            public void refresh() {
+                session(key, starter).credentialsProvider.refresh();
+            }
+        };
+    }
+
+    private Session session(String key, Callable<Session> starter) {
+        try {
+            return sessions.get(key, starter);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new SdkClientException("Could not assume AWS role for <" + key + ">.", e.getCause());
+        }
+    }
+
+    /**
+     * An assumed role session and the STS client that refreshes it.
+     */
+    static class Session {
+        private final STSAssumeRoleSessionCredentialsProvider credentialsProvider;
+        private final AWSSecurityTokenService stsClient;
+
+        Session(STSAssumeRoleSessionCredentialsProvider.Builder credentialsProvider, AWSSecurityTokenService stsClient) {
+            // Every session gets its own refresh thread, closing the session shuts it down.
+            this.credentialsProvider = credentialsProvider
+                    .withStsClient(stsClient)
+                    .withAsyncRefreshExecutor(Executors.newSingleThreadExecutor(THREAD_FACTORY))
+                    .build();
+            this.stsClient = stsClient;
+        }
+
+        void close() {
+            credentialsProvider.close();
+            stsClient.shutdown();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.config;
+
+import com.amazonaws.ClientConfiguration;
+import com.google.auto.value.AutoValue;
+import okhttp3.HttpUrl;
+import org.graylog.aws.auth.AWSAuthProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Shares AWS SDK clients across the plugin. Every client holds a connection pool and an idle connection reaper, so
+ * building a new one for every input start or lookup table refresh is expensive and leaks them unless they are shut
+ * down.
+ * <p>
+ * Clients are shared between all users of the same service, region, credentials and connection settings. A client
+ * is built when it is leased for the first time and shut down when its last lease is closed.
+ * <p>
+ * Only clients whose requests are short can be shared. A client whose threads are held by long polls, like the
+ * asynchronous SQS client of an input, would make the requests of every other user wait behind them.
+ */
+@Singleton
+public class AWSClientRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(AWSClientRegistry.class);
+
+    private final Map<Key, Entry<?>> clients = new HashMap<>();
+
+    /**
+     * Leases a client, building it if it is not in use yet.
+     *
+     * @param factory  builds the client with the given client configuration
+     * @param shutdown shuts the client down once it is not used anymore
+     */
+    public <T> Lease<T> acquire(Class<T> service,
+                                String region,
+                                AWSAuthProvider authProvider,
+                                AWSClientSettings settings,
+                                @Nullable HttpUrl proxyUrl,
+                                Function<ClientConfiguration, T> factory,
+                                Consumer<? super T> shutdown) {
+        final Key key = Key.create(service, region, authProvider.identity(), settings,
+                proxyUrl == null ? null : proxyUrl.toString());
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Entry<T> entry = (Entry<T>) clients.get(key);
+            if (entry == null) {
+                LOG.debug("Building shared {} client for region [{}].", service.getSimpleName(), region);
+                entry = new Entry<>(factory.apply(settings.toClientConfiguration(proxyUrl)), shutdown);
+                clients.put(key, entry);
+            }
+            entry.references++;
+            return new Lease<>(this, key, entry.client);
+        }
+    }
+
+    private synchronized void release(Key key) {
+        final Entry<?> entry = clients.get(key);
+        if (entry == null || --entry.references > 0) {
+            return;
+        }
+
+        LOG.debug("Shutting down shared {} client for region [{}].", key.service().getSimpleName(), key.region());
+        clients.remove(key);
+        entry.shutdown();
+    }
+
+    synchronized int size() {
+        return clients.size();
+    }
+
+    /**
+     * The use of a shared client. Closing the lease ends the use, the client must not be used afterwards.
+     */
+    public static class Lease<T> implements AutoCloseable {
+        private final AWSClientRegistry registry;
+        private final Key key;
+        private final T client;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(AWSClientRegistry registry, Key key, T client) {
+            this.registry = registry;
+            this.key = key;
+            this.client = client;
+        }
+
+        public T client() {
+            return client;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                registry.release(key);
+            }
+        }
+    }
+
+    private static class Entry<T> {
+        private final T client;
+        private final Consumer<? super T> shutdown;
+        private int references = 0;
+
+        Entry(T client, Consumer<? super T> shutdown) {
+            this.client = client;
+            this.shutdown = shutdown;
+        }
+
+        void shutdown() {
+            try {
+                shutdown.accept(client);
+            } catch (Exception e) {
+                LOG.warn("Could not shut down AWS client.", e);
+            }
+        }
+    }
+
+    @AutoValue
+    abstract static class Key {
+        abstract Class<?> service();
+
+        abstract String region();
+
+        abstract String credentials();
+
+        abstract AWSClientSettings settings();
+
+        @Nullable
+        abstract String proxy();
+
+        static Key create(Class<?> service, String region, String credentials, AWSClientSettings settings,
+                          @Nullable String proxy) {
+            return new AutoValue_AWSClientRegistry_Key(service, region, credentials, settings, proxy);
+        }
+    }
+}
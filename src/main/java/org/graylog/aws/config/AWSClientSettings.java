@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.config;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.ClientConfigurationFactory;
+import com.google.auto.value.AutoValue;
+import okhttp3.HttpUrl;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP connection settings for the AWS SDK clients of the plugin. Settings that are not set keep the SDK defaults.
+ */
+@AutoValue
+public abstract class AWSClientSettings {
+    @Nullable
+    public abstract Integer maxConnections();
+
+    @Nullable
+    public abstract Integer connectionTtlSeconds();
+
+    @Nullable
+    public abstract Integer socketTimeoutSeconds();
+
+    @Nullable
+    public abstract Integer requestTimeoutSeconds();
+
+    @Nullable
+    public abstract Boolean tcpKeepAlive();
+
+    @Nullable
+    public abstract Integer maxErrorRetries();
+
+    public static AWSClientSettings create(@Nullable Integer maxConnections,
+                                           @Nullable Integer connectionTtlSeconds,
+                                           @Nullable Integer socketTimeoutSeconds,
+                                           @Nullable Integer requestTimeoutSeconds,
+                                           @Nullable Boolean tcpKeepAlive,
+                                           @Nullable Integer maxErrorRetries) {
+        return new AutoValue_AWSClientSettings(
+                maxConnections,
+                connectionTtlSeconds,
+                socketTimeoutSeconds,
+                requestTimeoutSeconds,
+                tcpKeepAlive,
+                maxErrorRetries);
+    }
+
+    public static AWSClientSettings createDefault() {
+        return create(null, null, null, null, null, null);
+    }
+
+    /**
+     * @return these settings, with the settings that are not set taken from the given ones
+     */
+    public AWSClientSettings withDefaults(AWSClientSettings defaults) {
+        return create(
+                maxConnections() != null ? maxConnections() : defaults.maxConnections(),
+                connectionTtlSeconds() != null ? connectionTtlSeconds() : defaults.connectionTtlSeconds(),
+                socketTimeoutSeconds() != null ? socketTimeoutSeconds() : defaults.socketTimeoutSeconds(),
+                requestTimeoutSeconds() != null ? requestTimeoutSeconds() : defaults.requestTimeoutSeconds(),
+                tcpKeepAlive() != null ? tcpKeepAlive() : defaults.tcpKeepAlive(),
+                maxErrorRetries() != null ? maxErrorRetries() : defaults.maxErrorRetries());
+    }
+
+    /**
+     * Builds the configuration for SDK clients.
+     *
+     * @param proxyUrl the HTTP proxy to connect through, or {@code null} to connect directly
+     */
+    public ClientConfiguration toClientConfiguration(@Nullable HttpUrl proxyUrl) {
+        final ClientConfiguration configuration = proxyUrl == null
+                ? new ClientConfigurationFactory().getConfig()
+                : Proxy.forAWS(proxyUrl);
+
+        if (maxConnections() != null) {
+            configuration.setMaxConnections(maxConnections());
+        }
+        if (connectionTtlSeconds() != null) {
+            configuration.setConnectionTTL(TimeUnit.SECONDS.toMillis(connectionTtlSeconds()));
+        }
+        if (socketTimeoutSeconds() != null) {
+            configuration.setSocketTimeout((int) TimeUnit.SECONDS.toMillis(socketTimeoutSeconds()));
+        }
+        if (requestTimeoutSeconds() != null) {
+            configuration.setRequestTimeout((int) TimeUnit.SECONDS.toMillis(requestTimeoutSeconds()));
+        }
+        if (tcpKeepAlive() != null) {
+            configuration.setUseTcpKeepAlive(tcpKeepAlive());
+        }
+        if (maxErrorRetries() != null) {
+            configuration.setMaxErrorRetry(maxErrorRetries());
+        }
+        return configuration;
+    }
+}
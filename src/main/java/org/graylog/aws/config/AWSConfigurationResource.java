@@ -66,7 +66,13 @@ public class AWSConfigurationResource extends RestResource implements PluginRest
                 .lookupsEnabled(update.lookupsEnabled())
                 .lookupRegions(update.lookupRegions())
                 .accessKey(update.accessKey())
-                .proxyEnabled(update.proxyEnabled());
+                .proxyEnabled(update.proxyEnabled())
+                .clientMaxConnections(update.clientSettings().maxConnections())
+                .clientConnectionTtlSeconds(update.clientSettings().connectionTtlSeconds())
+                .clientSocketTimeoutSeconds(update.clientSettings().socketTimeoutSeconds())
+                .clientRequestTimeoutSeconds(update.clientSettings().requestTimeoutSeconds())
+                .clientTcpKeepAlive(update.clientSettings().tcpKeepAlive())
+                .clientMaxErrorRetries(update.clientSettings().maxErrorRetries());
 
         final AWSPluginConfiguration newConfiguration = update.secretKey()
                 .map(secretKey -> newConfigBuilder.secretKey(secretKey, systemConfiguration.getPasswordSecret()))
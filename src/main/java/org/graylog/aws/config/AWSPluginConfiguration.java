@@ -63,13 +63,64 @@ public abstract class AWSPluginConfiguration {
     @JsonProperty("proxy_enabled")
     public abstract boolean proxyEnabled();
 
+    @JsonProperty("client_max_connections")
+    @Nullable
+    public abstract Integer clientMaxConnections();
+
+    @JsonProperty("client_connection_ttl_seconds")
+    @Nullable
+    public abstract Integer clientConnectionTtlSeconds();
+
+    @JsonProperty("client_socket_timeout_seconds")
+    @Nullable
+    public abstract Integer clientSocketTimeoutSeconds();
+
+    @JsonProperty("client_request_timeout_seconds")
+    @Nullable
+    public abstract Integer clientRequestTimeoutSeconds();
+
+    @JsonProperty("client_tcp_keep_alive")
+    @Nullable
+    public abstract Boolean clientTcpKeepAlive();
+
+    @JsonProperty("client_max_error_retries")
+    @Nullable
+    public abstract Integer clientMaxErrorRetries();
+
+    @JsonIgnore
+    public AWSClientSettings clientSettings() {
+        return AWSClientSettings.create(
+                clientMaxConnections(),
+                clientConnectionTtlSeconds(),
+                clientSocketTimeoutSeconds(),
+                clientRequestTimeoutSeconds(),
+                clientTcpKeepAlive(),
+                clientMaxErrorRetries());
+    }
+
+    public static AWSPluginConfiguration create(boolean lookupsEnabled,
+                                                String lookupRegions,
+                                                String accessKey,
+                                                @Nullable String secretKey,
+                                                @Nullable String secretKeySalt,
+                                                boolean proxyEnabled) {
+        return create(lookupsEnabled, lookupRegions, accessKey, secretKey, secretKeySalt, proxyEnabled,
+                null, null, null, null, null, null);
+    }
+
     @JsonCreator
     public static AWSPluginConfiguration create(@JsonProperty("lookups_enabled") boolean lookupsEnabled,
                                                 @JsonProperty("lookup_regions") String lookupRegions,
                                                 @JsonProperty("access_key") String accessKey,
                                                 @JsonProperty("secret_key") @Nullable String secretKey,
                                                 @JsonProperty("secret_key_salt") @Nullable String secretKeySalt,
-                                                @JsonProperty("proxy_enabled") boolean proxyEnabled) {
+                                                @JsonProperty("proxy_enabled") boolean proxyEnabled,
+                                                @JsonProperty("client_max_connections") @Nullable Integer clientMaxConnections,
+                                                @JsonProperty("client_connection_ttl_seconds") @Nullable Integer clientConnectionTtlSeconds,
+                                                @JsonProperty("client_socket_timeout_seconds") @Nullable Integer clientSocketTimeoutSeconds,
+                                                @JsonProperty("client_request_timeout_seconds") @Nullable Integer clientRequestTimeoutSeconds,
+                                                @JsonProperty("client_tcp_keep_alive") @Nullable Boolean clientTcpKeepAlive,
+                                                @JsonProperty("client_max_error_retries") @Nullable Integer clientMaxErrorRetries) {
         return builder()
                 .lookupsEnabled(lookupsEnabled)
                 .lookupRegions(lookupRegions)
@@ -77,6 +128,12 @@ public abstract class AWSPluginConfiguration {
                 .encryptedSecretKey(secretKey)
                 .secretKeySalt(secretKeySalt)
                 .proxyEnabled(proxyEnabled)
+                .clientMaxConnections(clientMaxConnections)
+                .clientConnectionTtlSeconds(clientConnectionTtlSeconds)
+                .clientSocketTimeoutSeconds(clientSocketTimeoutSeconds)
+                .clientRequestTimeoutSeconds(clientRequestTimeoutSeconds)
+                .clientTcpKeepAlive(clientTcpKeepAlive)
+                .clientMaxErrorRetries(clientMaxErrorRetries)
                 .build();
     }
 
@@ -136,6 +193,18 @@ public abstract class AWSPluginConfiguration {
 
         public abstract Builder proxyEnabled(boolean proxyEnabled);
 
+        public abstract Builder clientMaxConnections(@Nullable Integer clientMaxConnections);
+
+        public abstract Builder clientConnectionTtlSeconds(@Nullable Integer clientConnectionTtlSeconds);
+
+        public abstract Builder clientSocketTimeoutSeconds(@Nullable Integer clientSocketTimeoutSeconds);
+
+        public abstract Builder clientRequestTimeoutSeconds(@Nullable Integer clientRequestTimeoutSeconds);
+
+        public abstract Builder clientTcpKeepAlive(@Nullable Boolean clientTcpKeepAlive);
+
+        public abstract Builder clientMaxErrorRetries(@Nullable Integer clientMaxErrorRetries);
+
         public abstract AWSPluginConfiguration build();
     }
 
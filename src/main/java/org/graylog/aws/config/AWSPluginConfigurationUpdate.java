@@ -38,20 +38,45 @@ public abstract class AWSPluginConfigurationUpdate {
 
     abstract boolean proxyEnabled();
 
+    abstract AWSClientSettings clientSettings();
+
+    public static AWSPluginConfigurationUpdate create(
+            boolean lookupsEnabled,
+            String lookupRegions,
+            String accessKey,
+            @Nullable String secretKey,
+            boolean proxyEnabled
+    ) {
+        return create(lookupsEnabled, lookupRegions, accessKey, secretKey, proxyEnabled, null, null, null, null, null, null);
+    }
+
     @JsonCreator
     public static AWSPluginConfigurationUpdate create(
             @JsonProperty("lookups_enabled") boolean lookupsEnabled,
             @JsonProperty("lookup_regions") String lookupRegions,
             @JsonProperty("access_key") String accessKey,
             @JsonProperty("secret_key") @Nullable String secretKey,
-            @JsonProperty("proxy_enabled") boolean proxyEnabled
+            @JsonProperty("proxy_enabled") boolean proxyEnabled,
+            @JsonProperty("client_max_connections") @Nullable Integer clientMaxConnections,
+            @JsonProperty("client_connection_ttl_seconds") @Nullable Integer clientConnectionTtlSeconds,
+            @JsonProperty("client_socket_timeout_seconds") @Nullable Integer clientSocketTimeoutSeconds,
+            @JsonProperty("client_request_timeout_seconds") @Nullable Integer clientRequestTimeoutSeconds,
+            @JsonProperty("client_tcp_keep_alive") @Nullable Boolean clientTcpKeepAlive,
+            @JsonProperty("client_max_error_retries") @Nullable Integer clientMaxErrorRetries
     ) {
         return new AutoValue_AWSPluginConfigurationUpdate(
                 lookupsEnabled,
                 lookupRegions,
                 accessKey,
                 Optional.ofNullable(Strings.emptyToNull(secretKey)),
-                proxyEnabled
+                proxyEnabled,
+                AWSClientSettings.create(
+                        clientMaxConnections,
+                        clientConnectionTtlSeconds,
+                        clientSocketTimeoutSeconds,
+                        clientRequestTimeoutSeconds,
+                        clientTcpKeepAlive,
+                        clientMaxErrorRetries)
         );
     }
 }
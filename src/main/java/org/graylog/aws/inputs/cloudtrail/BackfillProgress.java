@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The progress of a backfill, as it is stored in the cluster config. For every prefix that is being worked on, it
+ * holds the key of the last log file that has been ingested completely. Prefixes of days that are over and have been
+ * ingested completely are only remembered as completed, so they are not listed again.
+ */
+@JsonAutoDetect
+@AutoValue
+abstract class BackfillProgress {
+    @JsonProperty("watermarks")
+    abstract Map<String, String> watermarks();
+
+    @JsonProperty("completed_days")
+    abstract Set<String> completedDays();
+
+    static BackfillProgress create(Map<String, String> watermarks) {
+        return create(watermarks, ImmutableSet.of());
+    }
+
+    @JsonCreator
+    static BackfillProgress create(@JsonProperty("watermarks") Map<String, String> watermarks,
+                                   @JsonProperty("completed_days") @Nullable Set<String> completedDays) {
+        // Progress stored by earlier versions has no completed days.
+        return new AutoValue_BackfillProgress(watermarks, completedDays == null ? ImmutableSet.of() : completedDays);
+    }
+}
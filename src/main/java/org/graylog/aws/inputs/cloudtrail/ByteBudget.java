@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.graylog.aws.s3.RangedObjectInputStream;
+
+/**
+ * Limits the number of bytes that are buffered between pipeline stages at the same time. Callers block in
+ * {@link #acquire(long)} until enough of the budget has been released by others. A single request that is larger
+ * than the whole budget is granted once nothing else is in flight, so oversized objects cannot stall the pipeline.
+ * Consumers that must not block use {@link #tryAcquire(long)} instead.
+ */
+class ByteBudget implements RangedObjectInputStream.PartBudget {
+    private final long capacity;
+    private long inUse = 0;
+
+    ByteBudget(long capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    synchronized void acquire(long bytes) throws InterruptedException {
+        while (inUse > 0 && inUse + bytes > capacity) {
+            wait();
+        }
+        inUse += bytes;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire(long bytes) {
+        if (inUse > 0 && inUse + bytes > capacity) {
+            return false;
+        }
+        inUse += bytes;
+        return true;
+    }
+
+    @Override
+    public synchronized void forceAcquire(long bytes) {
+        inUse += bytes;
+    }
+
+    @Override
+    public synchronized void release(long bytes) {
+        inUse = Math.max(0, inUse - bytes);
+        notifyAll();
+    }
+
+    synchronized long inUse() {
+        return inUse;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.graylog2.shared.utilities.StringUtils.f;
+
+/**
+ * Ingests the CloudTrail log files that already exist in a bucket, instead of waiting for SQS notifications.
+ * <p>
+ * CloudTrail stores log files under {@code <prefix>/AWSLogs/<account>/CloudTrail/<region>/<yyyy>/<mm>/<dd>/}, or
+ * under {@code <prefix>/AWSLogs/<organization>/<account>/...} for organization trails. The accounts and regions are
+ * discovered by listing, and every day in the requested range of every account and region is listed and ingested
+ * by its own task, several of them in parallel.
+ * <p>
+ * S3 lists keys in lexicographic order, which is chronological within a day. After every log file, the key of the
+ * file becomes the watermark of its day. Watermarks are stored in the cluster config every few seconds, after every
+ * day and when the backfill stops. A backfill that has been interrupted resumes listing after the watermark of
+ * every day, so at most the log files of the last few seconds are ingested again.
+ * Days that are over and have been ingested completely are remembered as such and not listed again.
+ * <p>
+ * A log file that cannot be downloaded or parsed is retried with exponential backoff. If it still fails, the backfill
+ * of its day stops there and keeps its watermark in front of the file, while the other days go on. The input is
+ * marked as failing once the backfill has ended, and the next start retries the file.
+ */
+class CloudTrailBackfill extends Thread {
+    private static final Logger LOG = LoggerFactory.getLogger(CloudTrailBackfill.class);
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final String ORGANIZATION_PREFIX = "o-";
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private final S3Reader s3Reader;
+    private final String bucket;
+    private final String trailPrefix;
+    private final CloudTrailKeyFilter filter;
+    private final int threads;
+    private final LogFileEmitter logFileEmitter;
+    private final ClusterConfigService clusterConfigService;
+    private final String progressKey;
+    private final InputFailureRecorder inputFailureRecorder;
+    private final ThrottleableTransport2 transport;
+    private final long retryDelayMillis;
+
+    private final Map<String, String> watermarks = new ConcurrentHashMap<>();
+    private final Set<String> completedDays = ConcurrentHashMap.newKeySet();
+    private final AtomicLong stalledDays = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile ExecutorService workers;
+    private volatile long lastSaved = System.nanoTime();
+
+    /**
+     * @param s3Reader    the S3 client to use, closed when the backfill ends
+     * @param trailPrefix the S3 key prefix of the trail, may be empty
+     * @param filter      the accounts, regions and days to ingest
+     * @param progressKey the cluster config key the progress is stored under
+     */
+    CloudTrailBackfill(S3Reader s3Reader, String bucket, String trailPrefix, CloudTrailKeyFilter filter,
+                       int threads, LogFileEmitter logFileEmitter, ClusterConfigService clusterConfigService,
+                       String progressKey, InputFailureRecorder inputFailureRecorder, ThrottleableTransport2 transport) {
+        this(s3Reader, bucket, trailPrefix, filter, threads, logFileEmitter, clusterConfigService, progressKey,
+                inputFailureRecorder, transport, RETRY_DELAY_MILLIS);
+    }
+
+    CloudTrailBackfill(S3Reader s3Reader, String bucket, String trailPrefix, CloudTrailKeyFilter filter,
+                       int threads, LogFileEmitter logFileEmitter, ClusterConfigService clusterConfigService,
+                       String progressKey, InputFailureRecorder inputFailureRecorder, ThrottleableTransport2 transport,
+                       long retryDelayMillis) {
+        super("cloudtrail-backfill");
+        setDaemon(true);
+        this.s3Reader = s3Reader;
+        this.bucket = bucket;
+        this.trailPrefix = trailPrefix.isEmpty() || trailPrefix.endsWith("/") ? trailPrefix : trailPrefix + "/";
+        this.filter = filter;
+        this.threads = threads;
+        this.logFileEmitter = logFileEmitter;
+        this.clusterConfigService = clusterConfigService;
+        this.progressKey = progressKey;
+        this.inputFailureRecorder = inputFailureRecorder;
+        this.transport = transport;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    @Override
+    public void run() {
+        LOG.info("Starting CloudTrail backfill of bucket [{}] from {} to {}.", bucket, filter.startDate(), filter.endDate());
+
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cloudtrail-backfill-%d")
+                .build());
+        try {
+            final Map<String, LocalDate> dayPrefixes = dayPrefixes();
+            loadProgress(dayPrefixes);
+
+            final List<Future<?>> days = new ArrayList<>();
+            for (Map.Entry<String, LocalDate> dayPrefix : dayPrefixes.entrySet()) {
+                if (completedDays.contains(dayPrefix.getKey())) {
+                    continue;
+                }
+                days.add(workers.submit(() -> {
+                    ingestDay(dayPrefix.getKey(), dayPrefix.getValue());
+                    return null;
+                }));
+            }
+            for (Future<?> day : days) {
+                day.get();
+            }
+
+            if (stopped) {
+                return;
+            }
+            final long stalled = stalledDays.get();
+            if (stalled > 0) {
+                LOG.warn("Finished CloudTrail backfill of bucket [{}], [{}] days stopped at a log file that could not be ingested.", bucket, stalled);
+                inputFailureRecorder.setFailing(getClass(), f("CloudTrail backfill of bucket [%s] stopped at a log file that could not be ingested on [%d] days. They continue there on the next start.", bucket, stalled));
+            } else {
+                LOG.info("Finished CloudTrail backfill of bucket [{}].", bucket);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("CloudTrail backfill of bucket [{}] failed.", bucket, e.getCause());
+            inputFailureRecorder.setFailing(getClass(), f("CloudTrail backfill of bucket [%s] failed.", bucket), e.getCause());
+        } catch (Exception e) {
+            LOG.error("CloudTrail backfill of bucket [{}] failed.", bucket, e);
+            inputFailureRecorder.setFailing(getClass(), f("CloudTrail backfill of bucket [%s] failed.", bucket), e);
+        } finally {
+            workers.shutdownNow();
+            s3Reader.close();
+            saveProgress();
+        }
+    }
+
+    /**
+     * Restores the progress of the given days. The progress of days that are not part of the backfill anymore is
+     * dropped.
+     */
+    private void loadProgress(Map<String, LocalDate> dayPrefixes) {
+        final BackfillProgress progress = clusterConfigService.get(progressKey, BackfillProgress.class);
+        if (progress == null) {
+            return;
+        }
+        progress.watermarks().forEach((dayPrefix, watermark) -> {
+            if (dayPrefixes.containsKey(dayPrefix)) {
+                watermarks.put(dayPrefix, watermark);
+            }
+        });
+        for (String dayPrefix : progress.completedDays()) {
+            if (dayPrefixes.containsKey(dayPrefix)) {
+                completedDays.add(dayPrefix);
+            }
+        }
+    }
+
+    private Map<String, LocalDate> dayPrefixes() {
+        final List<String> accountPrefixes = new ArrayList<>();
+        for (String prefix : s3Reader.listCommonPrefixes(bucket, trailPrefix + "AWSLogs/")) {
+            if (lastSegment(prefix).startsWith(ORGANIZATION_PREFIX)) {
+                for (String organizationAccountPrefix : s3Reader.listCommonPrefixes(bucket, prefix)) {
+                    if (filter.matchesAccount(lastSegment(organizationAccountPrefix))) {
+                        accountPrefixes.add(organizationAccountPrefix);
+                    }
+                }
+            } else if (filter.matchesAccount(lastSegment(prefix))) {
+                accountPrefixes.add(prefix);
+            }
+        }
+
+        final Map<String, LocalDate> dayPrefixes = new LinkedHashMap<>();
+        for (String accountPrefix : accountPrefixes) {
+            for (String regionPrefix : s3Reader.listCommonPrefixes(bucket, accountPrefix + "CloudTrail/")) {
+                if (!filter.matchesRegion(lastSegment(regionPrefix))) {
+                    continue;
+                }
+                for (LocalDate day = filter.startDate(); !day.isAfter(filter.endDate()); day = day.plusDays(1)) {
+                    dayPrefixes.put(regionPrefix + DAY_FORMAT.format(day) + "/", day);
+                }
+            }
+        }
+
+        LOG.debug("Backfilling [{}] days of [{}] accounts.", dayPrefixes.size(), accountPrefixes.size());
+        return dayPrefixes;
+    }
+
+    private static String lastSegment(String prefix) {
+        final String withoutSlash = prefix.substring(0, prefix.length() - 1);
+        return withoutSlash.substring(withoutSlash.lastIndexOf('/') + 1);
+    }
+
+    private void ingestDay(String dayPrefix, LocalDate day) {
+        final ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withPrefix(dayPrefix)
+                .withStartAfter(watermarks.get(dayPrefix));
+
+        ListObjectsV2Result result;
+        do {
+            result = s3Reader.listObjects(request);
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                if (!awaitUnthrottled()) {
+                    return;
+                }
+
+                if (!ingest(summary.getKey())) {
+                    // The watermark stays in front of the log file, so the next start retries it.
+                    if (!stopped) {
+                        stalledDays.incrementAndGet();
+                    }
+                    return;
+                }
+                watermarks.put(dayPrefix, summary.getKey());
+                if (System.nanoTime() - lastSaved >= SAVE_INTERVAL_NANOS) {
+                    saveProgress();
+                }
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+
+        // CloudTrail delivers the log files of a day within a few minutes after it is over.
+        if (day.isBefore(LocalDate.now(ZoneOffset.UTC).minusDays(1))) {
+            completedDays.add(dayPrefix);
+            watermarks.remove(dayPrefix);
+        }
+        saveProgress();
+    }
+
+    /**
+     * Ingests a log file, retrying with exponential backoff if it cannot be downloaded or parsed.
+     *
+     * @return {@code false} if the log file could not be ingested or the backfill has been stopped
+     */
+    private boolean ingest(String key) {
+        for (int attempt = 1; ; attempt++) {
+            try (S3Object object = s3Reader.getObject(bucket, key)) {
+                logFileEmitter.emit(object.getObjectContent());
+                return true;
+            } catch (Exception e) {
+                if (stopped || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    LOG.error("Could not ingest CloudTrail log file <{}> of bucket [{}] after {} attempts. Stopping backfill of its day.", key, bucket, attempt, e);
+                    return false;
+                }
+                final long delayMillis = retryDelayMillis << (attempt - 1);
+                LOG.warn("Could not ingest CloudTrail log file <{}> of bucket [{}]. Retrying in {} ms.", key, bucket, delayMillis, e);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the backfill has been stopped while waiting
+     */
+    private boolean awaitUnthrottled() {
+        while (!stopped && transport.isThrottled()) {
+            transport.blockUntilUnthrottled(1, TimeUnit.SECONDS);
+        }
+        return !stopped && !Thread.currentThread().isInterrupted();
+    }
+
+    private synchronized void saveProgress() {
+        if (watermarks.isEmpty() && completedDays.isEmpty()) {
+            return;
+        }
+        try {
+            clusterConfigService.write(progressKey, BackfillProgress.create(ImmutableMap.copyOf(watermarks), ImmutableSet.copyOf(completedDays)));
+            lastSaved = System.nanoTime();
+        } catch (Exception e) {
+            LOG.warn("Could not save progress of CloudTrail backfill of bucket [{}].", bucket, e);
+        }
+    }
+
+    public void terminate() {
+        stopped = true;
+        final ExecutorService workers = this.workers;
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        interrupt();
+    }
+}
@@ -17,43 +17,52 @@
 package org.graylog.aws.inputs.cloudtrail;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog.aws.AWS;
 import org.graylog.aws.inputs.cloudtrail.json.CloudTrailRecord;
+import org.graylog.aws.inputs.cloudtrail.json.RawJson;
 import org.graylog.aws.AWSObjectMapper;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.inputs.codecs.AbstractCodec;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.journal.RawMessage;
-import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.Locale;
 
 public class CloudTrailCodec extends AbstractCodec {
     public static final String NAME = "AWSCloudTrail";
 
-    private final ObjectMapper objectMapper;
+    private final ObjectReader recordReader;
+    private final String source;
 
     @Inject
     public CloudTrailCodec(@Assisted Configuration configuration, @AWSObjectMapper ObjectMapper objectMapper) {
         super(configuration);
-        this.objectMapper = objectMapper;
+        final RawJson.Format jsonFieldFormat = RawJson.Format.valueOf(
+                configuration.getString(Config.CK_JSON_FIELD_FORMAT, Config.JSON_FIELD_FORMAT_LEGACY).toUpperCase(Locale.ROOT));
+        this.recordReader = objectMapper.readerFor(CloudTrailRecord.class).withAttribute(RawJson.Format.class, jsonFieldFormat);
+        this.source = configuration.getString(Config.CK_OVERRIDE_SOURCE, "aws-cloudtrail");
     }
 
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
         try {
-            final CloudTrailRecord record = objectMapper.readValue(rawMessage.getPayload(), CloudTrailRecord.class);
-            final String source = configuration.getString(Config.CK_OVERRIDE_SOURCE, "aws-cloudtrail");
-            final Message message = new Message(record.getConstructedMessage(), source, DateTime.parse(record.eventTime));
+            final CloudTrailRecord record = recordReader.readValue(rawMessage.getPayload());
+            final Message message = new Message(record.getConstructedMessage(), source, CloudTrailTimestamps.parse(record.eventTime));
 
-            message.addFields(record.additionalFieldsAsMap());
+            record.addFieldsTo(message);
             message.addField("full_message", record.getFullMessage());
             message.addField(AWS.SOURCE_GROUP_IDENTIFIER, true);
 
@@ -79,5 +88,28 @@ public class CloudTrailCodec extends AbstractCodec {
 
     @ConfigClass
     public static class Config extends AbstractCodec.Config {
+        static final String CK_JSON_FIELD_FORMAT = "json_field_format";
+        static final String JSON_FIELD_FORMAT_LEGACY = "legacy";
+        static final String JSON_FIELD_FORMAT_JSON = "json";
+
+        @Override
+        public ConfigurationRequest getRequestedConfiguration() {
+            final ConfigurationRequest r = super.getRequestedConfiguration();
+
+            r.addField(new DropdownField(
+                    CK_JSON_FIELD_FORMAT,
+                    "Request parameters format",
+                    JSON_FIELD_FORMAT_LEGACY,
+                    ImmutableMap.of(
+                            JSON_FIELD_FORMAT_LEGACY, "Legacy ({key=value})",
+                            JSON_FIELD_FORMAT_JSON, "JSON"),
+                    "How the request parameters (full_message) and the additional event data of a record are written. "
+                            + "JSON keeps them as the JSON text of the record instead of reading them into maps, "
+                            + "which is a lot cheaper for large API calls.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            return r;
+        }
     }
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.graylog2.shared.utilities.StringUtils.f;
+
+/**
+ * Ingests the CloudTrail log files listed by an S3 Inventory report, instead of listing the trail bucket.
+ * <p>
+ * For buckets with years of log files, the daily or weekly inventory report is a much cheaper way to enumerate
+ * them than listing every day of every account and region. The manifest of the report names the data files, which
+ * are read one after the other. Their rows are filtered by account, region and day, and the matching log files are
+ * downloaded and ingested by several threads in parallel.
+ * <p>
+ * Rows complete out of order, so the progress is the last row up to which every row has been completed. It is stored
+ * in the cluster config every few seconds, after every data file and when the import stops. An import that has been
+ * interrupted resumes after that row, so at most the log files of the last few seconds are ingested again.
+ * <p>
+ * Only CSV reports are supported. ORC and Parquet reports would need readers for those formats.
+ */
+class CloudTrailInventoryImport extends Thread {
+    private static final Logger LOG = LoggerFactory.getLogger(CloudTrailInventoryImport.class);
+
+    private static final String SUPPORTED_FORMAT = "CSV";
+    private static final String BUCKET_ARN_PREFIX = "arn:aws:s3:::";
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final S3Reader s3Reader;
+    private final ObjectMapper objectMapper;
+    private final String manifestBucket;
+    private final String manifestKey;
+    private final CloudTrailKeyFilter filter;
+    private final int threads;
+    private final LogFileEmitter logFileEmitter;
+    private final ClusterConfigService clusterConfigService;
+    private final String progressKey;
+    private final InputFailureRecorder inputFailureRecorder;
+    private final ThrottleableTransport2 transport;
+
+    private volatile ExecutorService workers;
+    private volatile boolean stopped = false;
+    private long lastSaved = System.nanoTime();
+
+    /**
+     * @param s3Reader    the S3 client to use, closed when the import ends
+     * @param manifestKey the S3 key of the {@code manifest.json} of the inventory report
+     * @param filter      the accounts, regions and days to ingest
+     * @param progressKey the cluster config key the progress is stored under
+     */
+    CloudTrailInventoryImport(S3Reader s3Reader, ObjectMapper objectMapper, String manifestBucket, String manifestKey,
+                              CloudTrailKeyFilter filter, int threads, LogFileEmitter logFileEmitter,
+                              ClusterConfigService clusterConfigService, String progressKey,
+                              InputFailureRecorder inputFailureRecorder, ThrottleableTransport2 transport) {
+        super("cloudtrail-inventory-import");
+        setDaemon(true);
+        this.s3Reader = s3Reader;
+        this.objectMapper = objectMapper;
+        this.manifestBucket = manifestBucket;
+        this.manifestKey = manifestKey;
+        this.filter = filter;
+        this.threads = threads;
+        this.logFileEmitter = logFileEmitter;
+        this.clusterConfigService = clusterConfigService;
+        this.progressKey = progressKey;
+        this.inputFailureRecorder = inputFailureRecorder;
+        this.transport = transport;
+    }
+
+    @Override
+    public void run() {
+        final String manifest = "s3://" + manifestBucket + "/" + manifestKey;
+        LOG.info("Starting CloudTrail import of S3 Inventory [{}] from {} to {}.", manifest, filter.startDate(), filter.endDate());
+
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cloudtrail-inventory-import-%d")
+                .build());
+        try {
+            final JsonNode report;
+            try (S3Object object = s3Reader.getObject(manifestBucket, manifestKey)) {
+                report = objectMapper.readTree(object.getObjectContent());
+            }
+
+            final String format = report.path("fileFormat").asText();
+            if (!SUPPORTED_FORMAT.equalsIgnoreCase(format)) {
+                throw new IllegalStateException(f("S3 Inventory [%s] has format [%s], only %s is supported.", manifest, format, SUPPORTED_FORMAT));
+            }
+            final List<String> schema = Splitter.on(',').trimResults().splitToList(report.path("fileSchema").asText());
+            final int bucketColumn = schema.indexOf("Bucket");
+            final int keyColumn = schema.indexOf("Key");
+            if (bucketColumn < 0 || keyColumn < 0) {
+                throw new IllegalStateException(f("S3 Inventory [%s] has no bucket and key columns.", manifest));
+            }
+
+            String dataBucket = report.path("destinationBucket").asText();
+            if (dataBucket.startsWith(BUCKET_ARN_PREFIX)) {
+                dataBucket = dataBucket.substring(BUCKET_ARN_PREFIX.length());
+            }
+            final List<String> dataKeys = new ArrayList<>();
+            for (JsonNode file : report.path("files")) {
+                dataKeys.add(file.path("key").asText());
+            }
+
+            // Progress of an older report does not apply to the rows of this one.
+            final InventoryProgress progress = clusterConfigService.get(progressKey, InventoryProgress.class);
+            final boolean resume = progress != null && progress.manifest().equals(manifest);
+            for (int file = resume ? progress.file() : 0; file < dataKeys.size() && !stopped; file++) {
+                final long lastRow = resume && file == progress.file() ? progress.row() : -1;
+                importFile(manifest, file, dataBucket, dataKeys.get(file), bucketColumn, keyColumn, lastRow);
+            }
+            if (!stopped) {
+                LOG.info("Finished CloudTrail import of S3 Inventory [{}].", manifest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("CloudTrail import of S3 Inventory [{}] failed.", manifest, e.getCause());
+            inputFailureRecorder.setFailing(getClass(), f("CloudTrail import of S3 Inventory [%s] failed.", manifest), e.getCause());
+        } catch (Exception e) {
+            if (!stopped) {
+                LOG.error("CloudTrail import of S3 Inventory [{}] failed.", manifest, e);
+                inputFailureRecorder.setFailing(getClass(), f("CloudTrail import of S3 Inventory [%s] failed.", manifest), e);
+            }
+        } finally {
+            workers.shutdownNow();
+            s3Reader.close();
+        }
+    }
+
+    private void importFile(String manifest, int file, String dataBucket, String dataKey, int bucketColumn,
+                            int keyColumn, long lastRow) throws IOException, InterruptedException, ExecutionException {
+        // Ingesting the log files of a data file takes far longer than S3 keeps an idle connection open.
+        final Path dataFile = Files.createTempFile("cloudtrail-inventory-", ".csv.gz");
+        final RowTracker rows = new RowTracker(lastRow);
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        boolean complete = false;
+        try {
+            try (S3Object object = s3Reader.getObject(dataBucket, dataKey)) {
+                Files.copy(object.getObjectContent(), dataFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    S3Reader.decompress(Files.newInputStream(dataFile)), StandardCharsets.UTF_8))) {
+                long row = -1;
+                String line;
+                while ((line = reader.readLine()) != null && failure.get() == null) {
+                    row++;
+                    if (row <= lastRow) {
+                        continue;
+                    }
+
+                    final List<String> values = parseRow(line);
+                    final String key = values.size() > keyColumn
+                            ? URLDecoder.decode(values.get(keyColumn), StandardCharsets.UTF_8.name())
+                            : "";
+                    if (!filter.matches(key)) {
+                        rows.completed(row);
+                        continue;
+                    }
+                    if (!awaitUnthrottled()) {
+                        return;
+                    }
+
+                    inFlight.acquire();
+                    final String bucket = values.get(bucketColumn);
+                    final long currentRow = row;
+                    workers.execute(() -> {
+                        try (S3Object object = s3Reader.getObject(bucket, key)) {
+                            logFileEmitter.emit(object.getObjectContent());
+                            rows.completed(currentRow);
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+
+                    if (System.nanoTime() - lastSaved >= SAVE_INTERVAL_NANOS) {
+                        saveProgress(manifest, file, rows.watermark());
+                    }
+                }
+            }
+
+            inFlight.acquire(threads * 2);
+            inFlight.release(threads * 2);
+            if (failure.get() != null) {
+                throw new ExecutionException(failure.get());
+            }
+            complete = true;
+        } finally {
+            Files.deleteIfExists(dataFile);
+            if (complete) {
+                saveProgress(manifest, file + 1, -1);
+            } else {
+                saveProgress(manifest, file, rows.watermark());
+            }
+        }
+    }
+
+    /**
+     * Splits a row of an S3 Inventory CSV file. Every value is quoted, and quotes within values are doubled.
+     */
+    static List<String> parseRow(String line) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * @return {@code false} if the import has been stopped while waiting
+     */
+    private boolean awaitUnthrottled() {
+        while (!stopped && transport.isThrottled()) {
+            transport.blockUntilUnthrottled(1, TimeUnit.SECONDS);
+        }
+        return !stopped && !Thread.currentThread().isInterrupted();
+    }
+
+    private void saveProgress(String manifest, int file, long row) {
+        try {
+            clusterConfigService.write(progressKey, InventoryProgress.create(manifest, file, row));
+            lastSaved = System.nanoTime();
+        } catch (Exception e) {
+            LOG.warn("Could not save progress of CloudTrail import of S3 Inventory [{}].", manifest, e);
+        }
+    }
+
+    public void terminate() {
+        stopped = true;
+        final ExecutorService workers = this.workers;
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        interrupt();
+    }
+
+    /**
+     * Tracks the last row up to which every row of a data file has been completed, while rows complete out of order.
+     */
+    private static class RowTracker {
+        private final SortedSet<Long> completed = new TreeSet<>();
+        private long watermark;
+
+        RowTracker(long watermark) {
+            this.watermark = watermark;
+        }
+
+        synchronized void completed(long row) {
+            completed.add(row);
+            while (completed.remove(watermark + 1)) {
+                watermark++;
+            }
+        }
+
+        synchronized long watermark() {
+            return watermark;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which CloudTrail log files a backfill ingests, based on the account, region and day in their S3 key.
+ */
+class CloudTrailKeyFilter {
+    private static final Pattern LOG_FILE_KEY = Pattern.compile(
+            "(?:^|/)AWSLogs/(?:o-[^/]+/)?(\\d{12})/CloudTrail/([^/]+)/(\\d{4})/(\\d{2})/(\\d{2})/[^/]+$");
+
+    private final Set<String> accounts;
+    private final Set<String> regions;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    /**
+     * @param accounts  the accounts to ingest, all accounts if empty
+     * @param regions   the regions to ingest, all regions if empty
+     * @param startDate the first day to ingest
+     * @param endDate   the last day to ingest
+     */
+    CloudTrailKeyFilter(Set<String> accounts, Set<String> regions, LocalDate startDate, LocalDate endDate) {
+        this.accounts = ImmutableSet.copyOf(accounts);
+        this.regions = ImmutableSet.copyOf(regions);
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    /**
+     * Parses a comma separated list of accounts or regions.
+     */
+    static Set<String> parseList(@Nullable String list) {
+        return list == null ? ImmutableSet.of() : ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(list));
+    }
+
+    LocalDate startDate() {
+        return startDate;
+    }
+
+    LocalDate endDate() {
+        return endDate;
+    }
+
+    boolean matchesAccount(String account) {
+        return accounts.isEmpty() || accounts.contains(account);
+    }
+
+    boolean matchesRegion(String region) {
+        return regions.isEmpty() || regions.contains(region);
+    }
+
+    /**
+     * @return {@code true} if the key is the key of a CloudTrail log file of one of the accounts and regions, that has
+     * been written on one of the days
+     */
+    boolean matches(String key) {
+        final Matcher matcher = LOG_FILE_KEY.matcher(key);
+        if (!matcher.find()) {
+            return false;
+        }
+
+        final LocalDate day = LocalDate.of(
+                Integer.parseInt(matcher.group(3)),
+                Integer.parseInt(matcher.group(4)),
+                Integer.parseInt(matcher.group(5)));
+        return matchesAccount(matcher.group(1))
+                && matchesRegion(matcher.group(2))
+                && !day.isBefore(startDate)
+                && !day.isAfter(endDate);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of a CloudTrail input, one per stage of the ingest, so it shows whether SQS, S3, decompression or
+ * parsing is the bottleneck.
+ */
+public class CloudTrailMetrics {
+    private static final String UNKNOWN_REGION = "unknown";
+
+    private final MetricRegistry registry;
+    private final Timer sqsReceiveTime;
+    private final Timer sqsDeleteTime;
+    private final Timer s3GetTime;
+    private final Histogram s3ObjectBytes;
+    private final Timer decompressionTime;
+    private final Timer parseTime;
+    private final Histogram recordsPerObject;
+    private final Meter notifications;
+    private final Meter records;
+    private final Meter parseFailures;
+    private final Meter skippedObjects;
+    private final Meter duplicateRecordsDropped;
+    private final AtomicLong visibleMessages = new AtomicLong();
+    private final AtomicLong inFlightMessages = new AtomicLong();
+    private final AtomicLong oldestMessageAgeMillis = new AtomicLong();
+    private volatile LongSupplier readAheadBytes = () -> 0L;
+    private final ConcurrentMap<String, Histogram> recordLag = new ConcurrentHashMap<>();
+
+    public CloudTrailMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        this.sqsReceiveTime = registry.timer("sqs_receive_time");
+        this.sqsDeleteTime = registry.timer("sqs_delete_time");
+        this.s3GetTime = registry.timer("s3_get_time");
+        this.s3ObjectBytes = registry.histogram("s3_object_bytes");
+        this.decompressionTime = registry.timer("decompression_time");
+        this.parseTime = registry.timer("parse_time");
+        this.recordsPerObject = registry.histogram("records_per_object");
+        this.notifications = registry.meter("notifications");
+        this.records = registry.meter("records");
+        this.parseFailures = registry.meter("parse_failures");
+        this.skippedObjects = registry.meter("skipped_objects");
+        this.duplicateRecordsDropped = registry.meter("duplicate_records_dropped");
+        registry.register("sqs_visible_messages", (Gauge<Long>) visibleMessages::get);
+        registry.register("sqs_in_flight_messages", (Gauge<Long>) inFlightMessages::get);
+        registry.register("sqs_oldest_message_age_millis", (Gauge<Long>) oldestMessageAgeMillis::get);
+        registry.register("read_ahead_bytes", (Gauge<Long>) () -> readAheadBytes.getAsLong());
+    }
+
+    /**
+     * The time an SQS receive takes, including the time it waits for messages when long polling.
+     */
+    public Timer sqsReceiveTime() {
+        return sqsReceiveTime;
+    }
+
+    /**
+     * The time a batch request that deletes processed messages from SQS takes.
+     */
+    public Timer sqsDeleteTime() {
+        return sqsDeleteTime;
+    }
+
+    /**
+     * The time it takes to download a log file, or its first part if it is downloaded in parts.
+     */
+    public Timer s3GetTime() {
+        return s3GetTime;
+    }
+
+    /**
+     * The compressed size of the downloaded log files.
+     */
+    public Histogram s3ObjectBytes() {
+        return s3ObjectBytes;
+    }
+
+    /**
+     * The time spent inflating a log file. Includes waiting for parts of log files that are downloaded in parts.
+     */
+    public Timer decompressionTime() {
+        return decompressionTime;
+    }
+
+    /**
+     * The time spent parsing a log file, without decompressing it and handing its records to the input.
+     */
+    public Timer parseTime() {
+        return parseTime;
+    }
+
+    public Histogram recordsPerObject() {
+        return recordsPerObject;
+    }
+
+    /**
+     * Marked for every log file notification received from SQS.
+     */
+    public Meter notifications() {
+        return notifications;
+    }
+
+    /**
+     * Marked for every record handed to the input.
+     */
+    public Meter records() {
+        return records;
+    }
+
+    /**
+     * Marked for every log file that is not valid JSON, and for every SQS message that cannot be parsed.
+     */
+    public Meter parseFailures() {
+        return parseFailures;
+    }
+
+    /**
+     * Marked for every notification of a log file that has already been processed.
+     */
+    public Meter skippedObjects() {
+        return skippedObjects;
+    }
+
+    public Meter duplicateRecordsDropped() {
+        return duplicateRecordsDropped;
+    }
+
+    /**
+     * Updates the number of messages that are waiting on the queue and the number of messages that have been received
+     * by any consumer but not deleted yet, as approximated by SQS.
+     */
+    public void queueDepth(long visible, long inFlight) {
+        visibleMessages.set(visible);
+        inFlightMessages.set(inFlight);
+    }
+
+    /**
+     * Updates the age of the oldest message of the last receive. A receive that returned no messages means that no
+     * message is waiting.
+     */
+    public void oldestMessageAge(long millis) {
+        oldestMessageAgeMillis.set(millis);
+    }
+
+    /**
+     * Sets the source of the number of compressed bytes that are currently read ahead. A full read-ahead buffer means
+     * that emitting is the bottleneck.
+     */
+    public void readAheadBytes(LongSupplier bytes) {
+        this.readAheadBytes = bytes;
+    }
+
+    /**
+     * The time between a CloudTrail event and its record being handed to the input, per region of the event.
+     */
+    public Histogram recordLag(@Nullable String awsRegion) {
+        final String region = awsRegion == null ? UNKNOWN_REGION : awsRegion;
+        final Histogram histogram = recordLag.get(region);
+        if (histogram != null) {
+            return histogram;
+        }
+        return recordLag.computeIfAbsent(region, r -> registry.histogram(MetricRegistry.name("record_lag_millis", r)));
+    }
+}
@@ -16,58 +16,89 @@
  */
 package org.graylog.aws.inputs.cloudtrail;
 
-import com.amazonaws.regions.Region;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.util.concurrent.Uninterruptibles;
-import okhttp3.HttpUrl;
-import org.graylog.aws.auth.AWSAuthProvider;
-import org.graylog.aws.inputs.cloudtrail.json.CloudTrailRecord;
 import org.graylog.aws.inputs.cloudtrail.messages.TreeReader;
 import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSNSNotification;
 import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSQSClient;
+import org.graylog.aws.inputs.cloudtrail.notifications.QueueDepthSampler;
+import org.graylog.aws.inputs.cloudtrail.notifications.SQSAckTracker;
+import org.graylog.aws.inputs.cloudtrail.notifications.VisibilityHeartbeat;
 import org.graylog.aws.s3.S3Reader;
 import org.graylog2.plugin.InputFailureRecorder;
 import org.graylog2.plugin.inputs.MessageInput;
-import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static org.graylog2.shared.utilities.StringUtils.f;
-
 public class CloudTrailSubscriber extends Thread {
     private static final Logger LOG = LoggerFactory.getLogger(CloudTrailSubscriber.class);
 
     public static final int SLEEP_INTERVAL_SECS = 5;
+    private static final long MIN_IDLE_INTERVAL_MILLIS = 250;
+    private static final long MIN_ERROR_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(SLEEP_INTERVAL_SECS);
+    private static final long MAX_ERROR_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // Spooled objects whose SQS message is never deleted, e.g. because it went to a dead-letter queue, expire.
+    private static final Duration MAX_SPOOL_AGE = Duration.ofDays(1);
 
     private volatile boolean stopped = false;
     private volatile boolean paused = false;
     private volatile CountDownLatch pausedLatch = new CountDownLatch(0);
+    // The receive that is waiting on SQS, cancelled on termination so the subscriber does not wait for a long poll.
+    private volatile CompletableFuture<List<CloudtrailSNSNotification>> pendingReceive;
 
     private final MessageInput sourceInput;
 
-    private final Region sqsRegion;
-    private final Region s3Region;
-    private final String queueName;
-    private final AWSAuthProvider authProvider;
-    private final HttpUrl proxyUrl;
+    private final CloudtrailSQSClient sqsClient;
+    private final S3Reader s3Reader;
     private final ObjectMapper objectMapper;
     private final InputFailureRecorder inputFailureRecorder;
+    private final int workerThreads;
+    private final int sqsWaitTimeSeconds;
+    private final long readAheadBytes;
+    private final long rangedGetThresholdBytes;
+    private final Path spoolDirectory;
+    private final CompletedObjectCache completedObjects;
+    private final RecordDeduplicator deduplicator;
+    private final ThrottleableTransport2 transport;
+    private final CloudTrailMetrics metrics;
 
-    public CloudTrailSubscriber(Region sqsRegion, Region s3Region, String queueName, MessageInput sourceInput,
-                                AWSAuthProvider authProvider, HttpUrl proxyUrl, ObjectMapper objectMapper,
-                                InputFailureRecorder inputFailureRecorder) {
-        this.sqsRegion = sqsRegion;
-        this.s3Region = s3Region;
-        this.queueName = queueName;
-        this.authProvider = authProvider;
+    /**
+     * @param sqsClient the SQS client to receive notifications with, closed when the subscriber stops
+     * @param s3Reader  the S3 client to download log files with, closed when the subscriber stops
+     */
+    public CloudTrailSubscriber(CloudtrailSQSClient sqsClient, S3Reader s3Reader, MessageInput sourceInput,
+                                ObjectMapper objectMapper, InputFailureRecorder inputFailureRecorder,
+                                int workerThreads, int sqsWaitTimeSeconds, long readAheadBytes, long rangedGetThresholdBytes,
+                                @Nullable Path spoolDirectory, CompletedObjectCache completedObjects,
+                                @Nullable RecordDeduplicator deduplicator,
+                                ThrottleableTransport2 transport,
+                                CloudTrailMetrics metrics) {
+        this.sqsClient = sqsClient;
+        this.s3Reader = s3Reader;
         this.sourceInput = sourceInput;
-        this.proxyUrl = proxyUrl;
         this.objectMapper = objectMapper;
         this.inputFailureRecorder = inputFailureRecorder;
+        this.workerThreads = Math.max(1, workerThreads);
+        this.sqsWaitTimeSeconds = sqsWaitTimeSeconds;
+        this.readAheadBytes = readAheadBytes;
+        this.rangedGetThresholdBytes = rangedGetThresholdBytes;
+        this.spoolDirectory = spoolDirectory;
+        this.completedObjects = completedObjects;
+        this.deduplicator = deduplicator;
+        this.transport = transport;
+        this.metrics = metrics;
     }
 
     public void pause() {
@@ -85,18 +116,51 @@ public class CloudTrailSubscriber extends Thread {
     public void run() {
 
         LOG.debug("Starting CloudTrailSubscriber");
-        CloudtrailSQSClient subscriber = new CloudtrailSQSClient(
-                sqsRegion,
-                queueName,
-                authProvider,
-                proxyUrl,
-                objectMapper);
-
-        TreeReader reader = new TreeReader(objectMapper);
-        S3Reader s3Reader = new S3Reader(s3Region, proxyUrl, authProvider);
-
-        // This looks weird but it actually makes sense! Believe me.
-        while (!stopped) {
+        CloudtrailSQSClient subscriber = sqsClient;
+
+        ObjectSpool spool = openSpool();
+        SQSAckTracker ackTracker = spool == null
+                ? new SQSAckTracker(subscriber)
+                : new SQSAckTracker(subscriber, deleted -> deleted.forEach(n -> spool.remove(n.getS3Bucket(), n.getS3ObjectKey())));
+        VisibilityHeartbeat heartbeat = new VisibilityHeartbeat(ackTracker, subscriber);
+        QueueDepthSampler queueDepthSampler = new QueueDepthSampler(subscriber);
+
+        /*
+         * This thread only receives notifications from SQS. Downloading and emitting the log files happens in the
+         * pipeline, so the next batch is already being received while the previous one is still being processed.
+         * Receiving blocks as soon as the pipeline is full.
+         */
+        NotificationPipeline pipeline = new NotificationPipeline(
+                workerThreads,
+                readAheadBytes,
+                rangedGetThresholdBytes,
+                spool,
+                completedObjects,
+                s3Reader,
+                new LogFileEmitter(new TreeReader(objectMapper), deduplicator, sourceInput, metrics),
+                ackTracker,
+                inputFailureRecorder,
+                transport::isThrottled,
+                metrics);
+
+        /*
+         * With long polling, an empty receive has already waited for new messages on the SQS side, so the next
+         * receive can be issued right away. With short polling we back off to avoid hammering AWS with receives
+         * while the queue is empty. Failing receives always back off.
+         */
+        final ReceiveBackoff idleBackoff = new ReceiveBackoff(MIN_IDLE_INTERVAL_MILLIS, TimeUnit.SECONDS.toMillis(SLEEP_INTERVAL_SECS));
+        final ReceiveBackoff errorBackoff = new ReceiveBackoff(MIN_ERROR_INTERVAL_MILLIS, MAX_ERROR_INTERVAL_MILLIS);
+
+        /*
+         * Receives are asynchronous. While a batch is handed to the pipeline, the next one is already being received,
+         * so the pipeline does not run dry during the round trip to SQS. A batch is tracked as soon as it arrives,
+         * which keeps it hidden from other consumers while it waits for its turn.
+         */
+        CompletableFuture<List<CloudtrailSNSNotification>> nextReceive = null;
+
+        heartbeat.start();
+        queueDepthSampler.start();
+        try {
             while (!stopped) {
                 if (paused) {
                     LOG.debug("Processing paused");
@@ -106,82 +170,161 @@ public class CloudTrailSubscriber extends Thread {
                     break;
                 }
 
+                flushAcks(ackTracker);
+
+                if (transport.isThrottled()) {
+                    // Don't take any new work from SQS while the journal is backed up. A batch that has been received
+                    // ahead goes back to the queue, the heartbeat would keep it hidden from other consumers otherwise.
+                    LOG.debug("Input is throttled. Pausing SQS receives.");
+                    returnPrefetched(nextReceive, ackTracker);
+                    nextReceive = null;
+                    flushAcks(ackTracker);
+                    transport.blockUntilUnthrottled(1, TimeUnit.SECONDS);
+                    continue;
+                }
+
+                if (nextReceive == null) {
+                    nextReceive = receive(subscriber, ackTracker);
+                }
                 List<CloudtrailSNSNotification> notifications;
                 try {
-                    notifications = subscriber.getNotifications();
-                } catch (Exception e) {
-                    inputFailureRecorder.setFailing(getClass(), "Could not read messages from SQS. This is most likely a misconfiguration of the plugin. Going into sleep loop and retrying.", e);
-                    break;
+                    notifications = nextReceive.get();
+                } catch (InterruptedException e) {
+                    LOG.debug("Interrupted while receiving CloudTrail notifications.");
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException | CancellationException e) {
+                    nextReceive = null;
+                    if (stopped) {
+                        break;
+                    }
+                    inputFailureRecorder.setFailing(getClass(), "Could not read messages from SQS. This is most likely a misconfiguration of the plugin. Going into sleep loop and retrying.", e.getCause());
+                    waitBeforeNextReceive(errorBackoff.nextDelayMillis());
+                    continue;
                 }
+                nextReceive = null;
+                errorBackoff.reset();
                 LOG.debug("Subscriber returned [{}] notifications.", notifications.size());
 
-                /*
-                 * Break out and wait a few seconds until next attempt to avoid hammering AWS with SQS
-                 * read requests while still being able to read lots of queued notifications without
-                 * the sleep() between each.
-                 */
-                if (notifications.size() == 0) {
-                    LOG.debug("No more messages to read from SQS. Going into sleep loop.");
-                    break;
+                if (notifications.isEmpty()) {
+                    if (sqsWaitTimeSeconds > 0) {
+                        LOG.debug("No messages arrived on SQS within {} seconds. Polling again.", sqsWaitTimeSeconds);
+                    } else {
+                        waitBeforeNextReceive(idleBackoff.nextDelayMillis());
+                    }
+                    continue;
                 }
+                idleBackoff.reset();
 
-                LOG.debug("Proceeding to read message content from S3.");
-                for (CloudtrailSNSNotification n : notifications) {
-                    try {
-
-                        LOG.debug("Checking for CloudTrail notifications in SQS.");
-                        List<CloudTrailRecord> records = reader.read(
-                                s3Reader.readCompressed(
-                                        n.getS3Bucket(),
-                                        n.getS3ObjectKey()));
-
-                        LOG.debug("[{}] records read from S3.", records.size());
-
-                        for (CloudTrailRecord record : records) {
-
-                            LOG.debug("Processing message content.");
-
-                            /*
-                             * We are using process and not processFailFast here even though we are using a
-                             * queue system (SQS) that could just deliver the message again when we are out of
-                             * internal Graylog2 capacity.
-                             *
-                             * Reason is that every notification in SQS contains batches of CloudTrail messages
-                             * that must be handled separately by Graylog2 (this loop) and we can only acknowledge
-                             * the SQS notification that may include multiple CloudTrail messages. If one single
-                             * internal message write fails, we would have to leave the whole notification on the
-                             * queue and then possibly duplicate messages that did not fail later in subsequent
-                             * write attempts.
-                             *
-                             * lol computers.
-                             */
-
-                            if (LOG.isTraceEnabled()) {
-                                LOG.trace("Processing cloud trail record: {}", objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(record));
-                            }
-
-                            sourceInput.processRawMessage(new RawMessage(objectMapper.writeValueAsBytes(record)));
-                        }
-
-                        // All messages written. Ack notification.
-                        subscriber.deleteNotification(n);
-                        inputFailureRecorder.setRunning();
-                    } catch (Exception e) {
-                        inputFailureRecorder.setFailing(this.getClass(), f("Could not read CloudTrail log file for <%s>. Skipping.", n.getS3Bucket()), e);
-                    }
+                if (!transport.isThrottled()) {
+                    nextReceive = receive(subscriber, ackTracker);
+                }
+
+                LOG.debug("Proceeding to read message content from S3 with [{}] workers.", workerThreads);
+                if (!dispatch(notifications, pipeline, ackTracker)) {
+                    return;
                 }
             }
+        } finally {
+            returnPrefetched(nextReceive, ackTracker);
+            pipeline.shutdown();
+            heartbeat.stop();
+            queueDepthSampler.stop();
+            flushAcks(ackTracker);
+            subscriber.close();
+            s3Reader.close();
+        }
+    }
 
-            if (!stopped) {
-                LOG.debug("Waiting {} seconds until next CloudTrail SQS check.", SLEEP_INTERVAL_SECS);
-                Uninterruptibles.sleepUninterruptibly(SLEEP_INTERVAL_SECS, TimeUnit.SECONDS);
+    private CompletableFuture<List<CloudtrailSNSNotification>> receive(CloudtrailSQSClient subscriber, SQSAckTracker ackTracker) {
+        final CompletableFuture<List<CloudtrailSNSNotification>> receive = subscriber.receiveNotifications();
+        pendingReceive = receive;
+        if (stopped) {
+            receive.cancel(true);
+        }
+        return receive.thenApply(notifications -> {
+            ackTracker.track(notifications);
+            return notifications;
+        });
+    }
+
+    /**
+     * Makes the notifications of a receive that is not going to be processed anymore visible to other consumers
+     * again with the next flush. A receive that is still waiting on SQS returns its notifications once they arrive.
+     * If the subscriber has been closed by then, they are delivered again once their visibility timeout has expired.
+     */
+    private static void returnPrefetched(@Nullable CompletableFuture<List<CloudtrailSNSNotification>> nextReceive, SQSAckTracker ackTracker) {
+        if (nextReceive != null) {
+            nextReceive.thenAccept(notifications -> notifications.forEach(ackTracker::returned));
+        }
+    }
+
+    /**
+     * Hands the notifications to the pipeline, waiting for room if necessary. Notifications that cannot be handed
+     * over because the subscriber is stopping are given up and will be delivered again by SQS.
+     *
+     * @return {@code false} if the subscriber has been interrupted
+     */
+    private boolean dispatch(List<CloudtrailSNSNotification> notifications, NotificationPipeline pipeline, SQSAckTracker ackTracker) {
+        for (int i = 0; i < notifications.size(); i++) {
+            final CloudtrailSNSNotification n = notifications.get(i);
+            try {
+                while (!pipeline.offer(n, 1, TimeUnit.SECONDS)) {
+                    if (stopped) {
+                        notifications.subList(i, notifications.size()).forEach(ackTracker::failed);
+                        return true;
+                    }
+                    LOG.debug("Processing pipeline is full. Waiting before handing over more notifications.");
+                    flushAcks(ackTracker);
+                }
+            } catch (InterruptedException e) {
+                LOG.debug("Interrupted while handing CloudTrail notifications to the processing pipeline.");
+                notifications.subList(i, notifications.size()).forEach(ackTracker::failed);
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
+        return true;
+    }
+
+    @Nullable
+    private ObjectSpool openSpool() {
+        if (spoolDirectory == null) {
+            return null;
+        }
+        try {
+            final ObjectSpool spool = new ObjectSpool(spoolDirectory);
+            spool.purge(MAX_SPOOL_AGE);
+            return spool;
+        } catch (IOException e) {
+            LOG.error("Could not open spool directory <{}>. Continuing without spool.", spoolDirectory, e);
+            inputFailureRecorder.setFailing(getClass(), "Could not open spool directory <" + spoolDirectory + ">.", e);
+            return null;
+        }
+    }
+
+    private void flushAcks(SQSAckTracker ackTracker) {
+        try {
+            ackTracker.flush();
+        } catch (Exception e) {
+            LOG.warn("Could not delete processed CloudTrail notifications from SQS. Trying again with the next flush.", e);
+        }
+    }
+
+    private void waitBeforeNextReceive(long delayMillis) {
+        if (!stopped) {
+            LOG.debug("Waiting {} ms until next CloudTrail SQS check.", delayMillis);
+            Uninterruptibles.sleepUninterruptibly(delayMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
     public void terminate() {
         stopped = true;
         paused = false;
         pausedLatch.countDown();
+        final CompletableFuture<List<CloudtrailSNSNotification>> receive = pendingReceive;
+        if (receive != null) {
+            receive.cancel(true);
+        }
     }
-}
\ No newline at end of file
+}
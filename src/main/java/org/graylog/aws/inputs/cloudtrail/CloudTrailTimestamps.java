@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Parses CloudTrail event times. CloudTrail always writes them as UTC timestamps with second precision, like
+ * {@code 2020-08-19T14:12:28Z}. These are parsed by hand, which is a lot cheaper than a general ISO 8601 parser.
+ * Everything else is left to Joda.
+ */
+final class CloudTrailTimestamps {
+    private static final int LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private CloudTrailTimestamps() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the timestamp is not a valid ISO 8601 timestamp
+     */
+    static DateTime parse(String timestamp) {
+        final long millis = parseFixedFormat(timestamp);
+        return millis == NOT_PARSED ? DateTime.parse(timestamp) : new DateTime(millis, DateTimeZone.UTC);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the timestamp is not a valid ISO 8601 timestamp
+     */
+    static long epochMillis(String timestamp) {
+        final long millis = parseFixedFormat(timestamp);
+        return millis == NOT_PARSED ? DateTime.parse(timestamp).getMillis() : millis;
+    }
+
+    private static long parseFixedFormat(String s) {
+        if (s.length() != LENGTH || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != 'Z') {
+            return NOT_PARSED;
+        }
+
+        final int year = digits(s, 0, 4);
+        final int month = digits(s, 5, 2);
+        final int day = digits(s, 8, 2);
+        final int hour = digits(s, 11, 2);
+        final int minute = digits(s, 14, 2);
+        final int second = digits(s, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return NOT_PARSED;
+        }
+
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC) * 1000L;
+        } catch (DateTimeException e) {
+            // Out of range fields, like February 30. Joda reports them.
+            return NOT_PARSED;
+        }
+    }
+
+    /**
+     * @return the value of the decimal digits, or a negative value if there is any other character
+     */
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
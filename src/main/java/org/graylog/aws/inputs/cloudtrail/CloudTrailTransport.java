@@ -18,8 +18,10 @@ package org.graylog.aws.inputs.cloudtrail;
 
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
 import com.codahale.metrics.MetricSet;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.assistedinject.Assisted;
@@ -27,15 +29,22 @@ import okhttp3.HttpUrl;
 import org.graylog.aws.AWS;
 import org.graylog.aws.AWSObjectMapper;
 import org.graylog.aws.auth.AWSAuthProvider;
+import org.graylog.aws.config.AWSClientRegistry;
+import org.graylog.aws.config.AWSClientSettings;
 import org.graylog.aws.config.AWSPluginConfiguration;
+import org.graylog.aws.inputs.cloudtrail.messages.TreeReader;
+import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSQSClient;
+import org.graylog.aws.s3.S3Reader;
 import org.graylog2.plugin.InputFailureRecorder;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.cluster.ClusterConfigService;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
 import org.graylog2.plugin.configuration.fields.DropdownField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.inputs.MessageInput;
 import org.graylog2.plugin.inputs.MisfireException;
@@ -54,7 +63,15 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.net.URI;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
 
 public class CloudTrailTransport extends ThrottleableTransport2 {
     private static final Logger LOG = LoggerFactory.getLogger(CloudTrailTransport.class);
@@ -67,18 +84,58 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
     private static final String CK_ACCESS_KEY = "aws_access_key";
     private static final String CK_SECRET_KEY = "aws_secret_key";
     private static final String CK_ASSUME_ROLE_ARN = "aws_assume_role_arn";
+    private static final String CK_WORKER_THREADS = "worker_threads";
+    private static final String CK_SQS_WAIT_TIME = "sqs_wait_time_seconds";
+    private static final String CK_SQS_VISIBILITY_TIMEOUT = "sqs_visibility_timeout_seconds";
+    private static final String CK_READ_AHEAD_BUFFER_MB = "read_ahead_buffer_mb";
+    private static final String CK_RANGED_GET_THRESHOLD_MB = "ranged_get_threshold_mb";
+    private static final String CK_SPOOL_DIRECTORY = "spool_directory";
+    private static final String CK_COMPLETED_OBJECTS_CACHE_SIZE = "completed_objects_cache_size";
+    private static final String CK_DEDUPLICATE_RECORDS = "deduplicate_records";
+    private static final String CK_BACKFILL_BUCKET = "backfill_bucket";
+    private static final String CK_BACKFILL_PREFIX = "backfill_prefix";
+    private static final String CK_BACKFILL_START_DATE = "backfill_start_date";
+    private static final String CK_BACKFILL_END_DATE = "backfill_end_date";
+    private static final String CK_BACKFILL_ACCOUNTS = "backfill_accounts";
+    private static final String CK_BACKFILL_REGIONS = "backfill_regions";
+    private static final String CK_BACKFILL_INVENTORY_MANIFEST = "backfill_inventory_manifest";
+    private static final String CK_CLIENT_MAX_CONNECTIONS = "client_max_connections";
+    private static final String CK_CLIENT_CONNECTION_TTL = "client_connection_ttl_seconds";
+    private static final String CK_CLIENT_SOCKET_TIMEOUT = "client_socket_timeout_seconds";
+    private static final String CK_CLIENT_REQUEST_TIMEOUT = "client_request_timeout_seconds";
+    private static final String CK_CLIENT_TCP_KEEP_ALIVE = "client_tcp_keep_alive";
+    private static final String CK_CLIENT_MAX_ERROR_RETRIES = "client_max_error_retries";
+    private static final String CK_DEDUPLICATION_WINDOW_MINUTES = "deduplication_window_minutes";
+    private static final String CK_DEDUPLICATION_EXPECTED_RECORDS = "deduplication_expected_records";
+    private static final String CK_DEDUPLICATION_FALSE_POSITIVE_RATE = "deduplication_false_positive_rate";
+
+    private static final String S3_URI_PREFIX = "s3://";
+    private static final String CLIENT_TCP_KEEP_ALIVE_DEFAULT = "default";
 
     private static final Regions DEFAULT_REGION = Regions.US_EAST_1;
+    private static final int DEFAULT_WORKER_THREADS = 4;
+    private static final int DEFAULT_SQS_VISIBILITY_TIMEOUT_SECONDS = 120;
+    private static final int DEFAULT_READ_AHEAD_BUFFER_MB = 64;
+    private static final int DEFAULT_RANGED_GET_THRESHOLD_MB = 8;
+    private static final int DEFAULT_COMPLETED_OBJECTS_CACHE_SIZE = 10_000;
+    private static final long COMPLETED_OBJECTS_CACHE_EXPIRY_HOURS = 24;
+    private static final int DEFAULT_DEDUPLICATION_WINDOW_MINUTES = 60;
+    private static final int DEFAULT_DEDUPLICATION_EXPECTED_RECORDS = 1_000_000;
+    private static final String DEFAULT_DEDUPLICATION_FALSE_POSITIVE_RATE = "0.0001";
 
     private final ServerStatus serverStatus;
     private final URI httpProxyUri;
     private final LocalMetricRegistry localRegistry;
+    private final CloudTrailMetrics metrics;
     private final org.graylog2.Configuration systemConfiguration;
     private final ClusterConfigService clusterConfigService;
     private final ObjectMapper objectMapper;
     private final EncryptedValueService encryptedValueService;
+    private final AWSClientRegistry clientRegistry;
 
     private CloudTrailSubscriber subscriber;
+    private CloudTrailBackfill backfill;
+    private CloudTrailInventoryImport inventoryImport;
 
     @Inject
     public CloudTrailTransport(@Assisted final Configuration configuration,
@@ -89,7 +146,8 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
                                @AWSObjectMapper ObjectMapper objectMapper,
                                @Named("http_proxy_uri") @Nullable URI httpProxyUri,
                                LocalMetricRegistry localRegistry,
-                               EncryptedValueService encryptedValueService) {
+                               EncryptedValueService encryptedValueService,
+                               AWSClientRegistry clientRegistry) {
         super(serverEventBus, configuration);
         this.systemConfiguration = systemConfiguration;
 
@@ -98,7 +156,9 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
         this.objectMapper = objectMapper;
         this.httpProxyUri = httpProxyUri;
         this.localRegistry = localRegistry;
+        this.metrics = new CloudTrailMetrics(localRegistry);
         this.encryptedValueService = encryptedValueService;
+        this.clientRegistry = clientRegistry;
     }
 
     @Override
@@ -138,7 +198,10 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
         final String sqsRegionName = input.getConfiguration().getString(CK_AWS_SQS_REGION, legacyRegionName);
         final String s3RegionName = input.getConfiguration().getString(CK_AWS_S3_REGION, legacyRegionName);
 
+        final String spoolDirectory = input.getConfiguration().getString(CK_SPOOL_DIRECTORY);
+
         final HttpUrl proxyUrl = config.proxyEnabled() && httpProxyUri != null ? HttpUrl.get(httpProxyUri) : null;
+        final AWSClientSettings clientSettings = clientSettings(input.getConfiguration()).withDefaults(config.clientSettings());
 
         final AWSAuthProvider authProvider = new AWSAuthProvider(
                 systemConfiguration,
@@ -146,20 +209,164 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
                 input.getConfiguration().getString(CK_ACCESS_KEY),
                 encryptedValueService.decrypt(input.getConfiguration().getEncryptedValue(CK_SECRET_KEY)),
                 input.getConfiguration().getString(CK_AWS_SQS_REGION),
-                input.getConfiguration().getString(CK_ASSUME_ROLE_ARN)
+                input.getConfiguration().getString(CK_ASSUME_ROLE_ARN),
+                clientSettings.toClientConfiguration(proxyUrl)
         );
 
-        subscriber = new CloudTrailSubscriber(
-                Region.getRegion(Regions.fromName(sqsRegionName)),
-                Region.getRegion(Regions.fromName(s3RegionName)),
+        final String backfillBucket = input.getConfiguration().getString(CK_BACKFILL_BUCKET);
+        final String inventoryManifest = input.getConfiguration().getString(CK_BACKFILL_INVENTORY_MANIFEST);
+        final CloudTrailKeyFilter backfillFilter = isNullOrEmpty(backfillBucket) && isNullOrEmpty(inventoryManifest) ? null
+                : new CloudTrailKeyFilter(
+                        CloudTrailKeyFilter.parseList(input.getConfiguration().getString(CK_BACKFILL_ACCOUNTS)),
+                        CloudTrailKeyFilter.parseList(input.getConfiguration().getString(CK_BACKFILL_REGIONS)),
+                        parseBackfillDate(input.getConfiguration().getString(CK_BACKFILL_START_DATE), null),
+                        parseBackfillDate(input.getConfiguration().getString(CK_BACKFILL_END_DATE), LocalDate.now(ZoneOffset.UTC)));
+        final String[] inventoryManifestLocation = isNullOrEmpty(inventoryManifest) ? null : parseS3Uri(inventoryManifest);
+
+        final RecordDeduplicator deduplicator = buildDeduplicator(input.getConfiguration());
+
+        // Every input gets its own SQS client, its long polls would block the requests of other inputs otherwise.
+        final CloudtrailSQSClient sqsClient = new CloudtrailSQSClient(
+                CloudtrailSQSClient.buildClient(Region.getRegion(Regions.fromName(sqsRegionName)), authProvider,
+                        clientSettings.toClientConfiguration(proxyUrl)),
                 input.getConfiguration().getString(CK_SQS_NAME),
+                objectMapper,
+                input.getConfiguration().getInt(CK_SQS_WAIT_TIME, CloudtrailSQSClient.MAX_WAIT_TIME_SECONDS),
+                input.getConfiguration().getInt(CK_SQS_VISIBILITY_TIMEOUT, DEFAULT_SQS_VISIBILITY_TIMEOUT_SECONDS),
+                metrics);
+
+        subscriber = new CloudTrailSubscriber(
+                sqsClient,
+                s3Reader(s3RegionName, authProvider, clientSettings, proxyUrl),
                 input,
-                authProvider,
-                proxyUrl,
                 objectMapper,
-                inputFailureRecorder);
+                inputFailureRecorder,
+                input.getConfiguration().getInt(CK_WORKER_THREADS, DEFAULT_WORKER_THREADS),
+                input.getConfiguration().getInt(CK_SQS_WAIT_TIME, CloudtrailSQSClient.MAX_WAIT_TIME_SECONDS),
+                input.getConfiguration().getInt(CK_READ_AHEAD_BUFFER_MB, DEFAULT_READ_AHEAD_BUFFER_MB) * 1024L * 1024L,
+                input.getConfiguration().getInt(CK_RANGED_GET_THRESHOLD_MB, DEFAULT_RANGED_GET_THRESHOLD_MB) * 1024L * 1024L,
+                isNullOrEmpty(spoolDirectory) ? null : Paths.get(spoolDirectory),
+                new CompletedObjectCache(
+                        input.getConfiguration().getInt(CK_COMPLETED_OBJECTS_CACHE_SIZE, DEFAULT_COMPLETED_OBJECTS_CACHE_SIZE),
+                        COMPLETED_OBJECTS_CACHE_EXPIRY_HOURS,
+                        TimeUnit.HOURS),
+                deduplicator,
+                this,
+                metrics);
 
         subscriber.start();
+
+        if (inventoryManifestLocation != null) {
+            inventoryImport = new CloudTrailInventoryImport(
+                    s3Reader(s3RegionName, authProvider, clientSettings, proxyUrl),
+                    objectMapper,
+                    inventoryManifestLocation[0],
+                    inventoryManifestLocation[1],
+                    backfillFilter,
+                    input.getConfiguration().getInt(CK_WORKER_THREADS, DEFAULT_WORKER_THREADS),
+                    new LogFileEmitter(new TreeReader(objectMapper), deduplicator, input, metrics),
+                    clusterConfigService,
+                    InventoryProgress.class.getCanonicalName() + "." + input.getId(),
+                    inputFailureRecorder,
+                    this);
+            inventoryImport.start();
+        } else if (!isNullOrEmpty(backfillBucket)) {
+            backfill = new CloudTrailBackfill(
+                    s3Reader(s3RegionName, authProvider, clientSettings, proxyUrl),
+                    backfillBucket,
+                    nullToEmpty(input.getConfiguration().getString(CK_BACKFILL_PREFIX)),
+                    backfillFilter,
+                    input.getConfiguration().getInt(CK_WORKER_THREADS, DEFAULT_WORKER_THREADS),
+                    new LogFileEmitter(new TreeReader(objectMapper), deduplicator, input, metrics),
+                    clusterConfigService,
+                    BackfillProgress.class.getCanonicalName() + "." + input.getId(),
+                    inputFailureRecorder,
+                    this);
+            backfill.start();
+        }
+    }
+
+    private S3Reader s3Reader(String regionName, AWSAuthProvider authProvider, AWSClientSettings clientSettings,
+                              @Nullable HttpUrl proxyUrl) {
+        return new S3Reader(clientRegistry.acquire(AmazonS3.class, regionName, authProvider, clientSettings, proxyUrl,
+                clientConfiguration -> S3Reader.buildClient(Region.getRegion(Regions.fromName(regionName)), authProvider, clientConfiguration),
+                AmazonS3::shutdown));
+    }
+
+    private static LocalDate parseBackfillDate(@Nullable String date, @Nullable LocalDate defaultDate) throws MisfireException {
+        if (isNullOrEmpty(date)) {
+            if (defaultDate == null) {
+                throw new MisfireException("A backfill needs a start date.");
+            }
+            return defaultDate;
+        }
+        try {
+            return LocalDate.parse(date.trim());
+        } catch (DateTimeParseException e) {
+            throw new MisfireException("Invalid backfill date <" + date + ">. Expected a date like 2020-01-31.", e);
+        }
+    }
+
+    /**
+     * Splits an URI like {@code s3://bucket/key} into the bucket and the key.
+     */
+    private static String[] parseS3Uri(String uri) throws MisfireException {
+        final String trimmed = uri.trim();
+        final int keyStart = trimmed.indexOf('/', S3_URI_PREFIX.length());
+        if (!trimmed.startsWith(S3_URI_PREFIX) || keyStart <= S3_URI_PREFIX.length() || keyStart == trimmed.length() - 1) {
+            throw new MisfireException("Invalid S3 Inventory manifest <" + uri + ">. Expected an URI like s3://bucket/path/manifest.json.");
+        }
+        return new String[]{trimmed.substring(S3_URI_PREFIX.length(), keyStart), trimmed.substring(keyStart + 1)};
+    }
+
+    /**
+     * @return the client settings of the input, settings that are not set fall back to the plugin configuration
+     */
+    private static AWSClientSettings clientSettings(Configuration configuration) {
+        final String tcpKeepAlive = configuration.getString(CK_CLIENT_TCP_KEEP_ALIVE, CLIENT_TCP_KEEP_ALIVE_DEFAULT);
+        final int maxErrorRetries = configuration.getInt(CK_CLIENT_MAX_ERROR_RETRIES, -1);
+        return AWSClientSettings.create(
+                positiveOrNull(configuration.getInt(CK_CLIENT_MAX_CONNECTIONS, 0)),
+                positiveOrNull(configuration.getInt(CK_CLIENT_CONNECTION_TTL, 0)),
+                positiveOrNull(configuration.getInt(CK_CLIENT_SOCKET_TIMEOUT, 0)),
+                positiveOrNull(configuration.getInt(CK_CLIENT_REQUEST_TIMEOUT, 0)),
+                CLIENT_TCP_KEEP_ALIVE_DEFAULT.equals(tcpKeepAlive) ? null : Boolean.valueOf(tcpKeepAlive),
+                maxErrorRetries >= 0 ? maxErrorRetries : null);
+    }
+
+    @Nullable
+    private static Integer positiveOrNull(int value) {
+        return value > 0 ? value : null;
+    }
+
+    @Nullable
+    private RecordDeduplicator buildDeduplicator(Configuration configuration) throws MisfireException {
+        if (!configuration.getBoolean(CK_DEDUPLICATE_RECORDS, false)) {
+            return null;
+        }
+
+        return new RecordDeduplicator(
+                configuration.getInt(CK_DEDUPLICATION_EXPECTED_RECORDS, DEFAULT_DEDUPLICATION_EXPECTED_RECORDS),
+                parseFalsePositiveRate(configuration.getString(CK_DEDUPLICATION_FALSE_POSITIVE_RATE)),
+                configuration.getInt(CK_DEDUPLICATION_WINDOW_MINUTES, DEFAULT_DEDUPLICATION_WINDOW_MINUTES),
+                TimeUnit.MINUTES,
+                metrics.duplicateRecordsDropped());
+    }
+
+    private static double parseFalsePositiveRate(@Nullable String rate) throws MisfireException {
+        if (isNullOrEmpty(rate)) {
+            return Double.parseDouble(DEFAULT_DEDUPLICATION_FALSE_POSITIVE_RATE);
+        }
+        final double parsed;
+        try {
+            parsed = Double.parseDouble(rate.trim());
+        } catch (NumberFormatException e) {
+            throw new MisfireException("Invalid deduplication false positive rate <" + rate + ">. Expected a number like 0.0001.", e);
+        }
+        if (!(parsed > 0 && parsed < 1)) {
+            throw new MisfireException("Invalid deduplication false positive rate <" + rate + ">. It must be greater than 0 and less than 1.");
+        }
+        return parsed;
     }
 
     @Override
@@ -168,6 +375,14 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
         if (subscriber != null) {
             subscriber.terminate();
         }
+        if (backfill != null) {
+            backfill.terminate();
+            backfill = null;
+        }
+        if (inventoryImport != null) {
+            inventoryImport.terminate();
+            inventoryImport = null;
+        }
     }
 
     @Override
@@ -248,6 +463,231 @@ public class CloudTrailTransport extends ThrottleableTransport2 {
                     ConfigurationField.Optional.OPTIONAL
             ));
 
+            r.addField(new NumberField(
+                    CK_WORKER_THREADS,
+                    "Worker threads",
+                    DEFAULT_WORKER_THREADS,
+                    "Number of CloudTrail log files that are fetched from S3 and processed in parallel.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_SQS_WAIT_TIME,
+                    "SQS wait time (seconds)",
+                    CloudtrailSQSClient.MAX_WAIT_TIME_SECONDS,
+                    "How long a receive waits for notifications to arrive on an empty SQS queue (long polling). " +
+                            "Maximum is 20 seconds, 0 disables long polling.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_SQS_VISIBILITY_TIMEOUT,
+                    "SQS visibility timeout (seconds)",
+                    DEFAULT_SQS_VISIBILITY_TIMEOUT_SECONDS,
+                    "How long received notifications are hidden from other consumers. The visibility of notifications " +
+                            "that are still being processed is extended periodically.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_READ_AHEAD_BUFFER_MB,
+                    "Read-ahead buffer (MB)",
+                    DEFAULT_READ_AHEAD_BUFFER_MB,
+                    "Maximum size of compressed CloudTrail log files that are downloaded ahead while others are " +
+                            "still being processed.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_RANGED_GET_THRESHOLD_MB,
+                    "Ranged GET threshold (MB)",
+                    DEFAULT_RANGED_GET_THRESHOLD_MB,
+                    "Compressed CloudTrail log files larger than this are downloaded in parts of this size, " +
+                            "several of them in parallel.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_CLIENT_MAX_CONNECTIONS,
+                    "Max AWS connections",
+                    0,
+                    "Maximum number of open HTTP connections of each AWS client of this input. Should be at least " +
+                            "the number of worker threads times the parts of ranged downloads. 0 uses the AWS plugin " +
+                            "configuration.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new NumberField(
+                    CK_CLIENT_CONNECTION_TTL,
+                    "AWS connection TTL (seconds)",
+                    0,
+                    "How long pooled HTTP connections are reused before they are closed. 0 uses the AWS plugin " +
+                            "configuration.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new NumberField(
+                    CK_CLIENT_SOCKET_TIMEOUT,
+                    "AWS socket timeout (seconds)",
+                    0,
+                    "How long to wait for data on an open connection. 0 uses the AWS plugin configuration.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new NumberField(
+                    CK_CLIENT_REQUEST_TIMEOUT,
+                    "AWS request timeout (seconds)",
+                    0,
+                    "How long an AWS request may take, not counting the download of S3 objects. 0 uses the AWS " +
+                            "plugin configuration.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new DropdownField(
+                    CK_CLIENT_TCP_KEEP_ALIVE,
+                    "AWS TCP keep-alive",
+                    CLIENT_TCP_KEEP_ALIVE_DEFAULT,
+                    ImmutableMap.of(
+                            CLIENT_TCP_KEEP_ALIVE_DEFAULT, "AWS plugin configuration",
+                            "true", "Enabled",
+                            "false", "Disabled"),
+                    "Whether TCP keep-alive packets are sent on idle connections.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new NumberField(
+                    CK_CLIENT_MAX_ERROR_RETRIES,
+                    "AWS request retries",
+                    -1,
+                    "How often failed AWS requests are retried. -1 uses the AWS plugin configuration.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_SPOOL_DIRECTORY,
+                    "Spool directory",
+                    "",
+                    "Local directory that downloaded CloudTrail log files are kept in until their SQS notification " +
+                            "has been deleted, so they don't have to be downloaded again after a restart. Use a " +
+                            "separate directory for every input. Leave empty to keep downloads in memory only.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new NumberField(
+                    CK_COMPLETED_OBJECTS_CACHE_SIZE,
+                    "Completed log files cache size",
+                    DEFAULT_COMPLETED_OBJECTS_CACHE_SIZE,
+                    "Number of recently processed CloudTrail log files to remember for a day. Repeated " +
+                            "notifications for them are acknowledged without downloading the log file again.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new BooleanField(
+                    CK_DEDUPLICATE_RECORDS,
+                    "Drop duplicate records",
+                    false,
+                    "Drop CloudTrail records whose event ID has already been seen within the deduplication window."
+            ));
+
+            r.addField(new NumberField(
+                    CK_DEDUPLICATION_WINDOW_MINUTES,
+                    "Deduplication window (minutes)",
+                    DEFAULT_DEDUPLICATION_WINDOW_MINUTES,
+                    "How long event IDs are remembered. They are kept for at least half of this time.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new NumberField(
+                    CK_DEDUPLICATION_EXPECTED_RECORDS,
+                    "Expected records per half window",
+                    DEFAULT_DEDUPLICATION_EXPECTED_RECORDS,
+                    "Number of records expected within half of the deduplication window. Memory use grows with " +
+                            "this number. If more records arrive, more unique records are mistaken for duplicates.",
+                    ConfigurationField.Optional.OPTIONAL,
+                    NumberField.Attribute.ONLY_POSITIVE
+            ));
+
+            r.addField(new DropdownField(
+                    CK_DEDUPLICATION_FALSE_POSITIVE_RATE,
+                    "Deduplication false positive rate",
+                    DEFAULT_DEDUPLICATION_FALSE_POSITIVE_RATE,
+                    ImmutableMap.of(
+                            "0.01", "1 in 100",
+                            "0.001", "1 in 1,000",
+                            "0.0001", "1 in 10,000",
+                            "0.00001", "1 in 100,000"),
+                    "Share of unique records that may be mistaken for duplicates and dropped. Lower rates need " +
+                            "more memory.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_BUCKET,
+                    "Backfill S3 bucket",
+                    "",
+                    "Bucket to ingest existing CloudTrail log files from, in addition to the ones announced on SQS. " +
+                            "Leave empty to disable the backfill.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_PREFIX,
+                    "Backfill S3 key prefix",
+                    "",
+                    "The S3 key prefix of the trail, i.e. everything before \"AWSLogs/\" in the keys of its log files.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_START_DATE,
+                    "Backfill start date",
+                    "",
+                    "The first day to backfill, like 2020-01-31.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_END_DATE,
+                    "Backfill end date",
+                    "",
+                    "The last day to backfill, like 2020-03-31. Defaults to today.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_ACCOUNTS,
+                    "Backfill accounts",
+                    "",
+                    "Comma separated IDs of the AWS accounts to backfill. Leave empty to backfill all accounts.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_REGIONS,
+                    "Backfill regions",
+                    "",
+                    "Comma separated names of the AWS regions to backfill, like eu-west-1. Leave empty to backfill " +
+                            "all regions.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
+            r.addField(new TextField(
+                    CK_BACKFILL_INVENTORY_MANIFEST,
+                    "Backfill S3 Inventory manifest",
+                    "",
+                    "The manifest.json of a CSV S3 Inventory report of the trail bucket, like " +
+                            "s3://inventory-bucket/path/manifest.json. If set, the log files to backfill are taken " +
+                            "from the report instead of listing the backfill bucket.",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
             return r;
         }
     }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the S3 objects whose records have recently been emitted completely, so notifications that announce them
+ * again can be acknowledged without downloading anything. Objects are identified by bucket and key, and by their
+ * ETag if it is known on both sides. CloudTrail never overwrites a log file, but S3 event notifications for other
+ * writers may announce a new version under the same key, which the ETag tells apart.
+ */
+class CompletedObjectCache {
+    private final Cache<String, String> completed;
+
+    CompletedObjectCache(long maximumSize, long expireAfter, TimeUnit unit) {
+        this.completed = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfter, unit)
+                .build();
+    }
+
+    boolean isCompleted(String bucket, String key, @Nullable String eTag) {
+        final String completedETag = completed.getIfPresent(cacheKey(bucket, key));
+        if (completedETag == null) {
+            return false;
+        }
+        return eTag == null || completedETag.isEmpty() || completedETag.equals(eTag);
+    }
+
+    void completed(String bucket, String key, @Nullable String eTag) {
+        completed.put(cacheKey(bucket, key), Strings.nullToEmpty(eTag));
+    }
+
+    private static String cacheKey(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+}
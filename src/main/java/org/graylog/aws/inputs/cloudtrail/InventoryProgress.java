@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+/**
+ * The progress of an S3 Inventory import, as it is stored in the cluster config. It holds the inventory data file
+ * that is being worked on and the last row of it up to which every log file has been ingested completely.
+ */
+@JsonAutoDetect
+@AutoValue
+abstract class InventoryProgress {
+    @JsonProperty("manifest")
+    abstract String manifest();
+
+    @JsonProperty("file")
+    abstract int file();
+
+    @JsonProperty("row")
+    abstract long row();
+
+    @JsonCreator
+    static InventoryProgress create(@JsonProperty("manifest") String manifest,
+                                    @JsonProperty("file") int file,
+                                    @JsonProperty("row") long row) {
+        return new AutoValue_InventoryProgress(manifest, file, row);
+    }
+}
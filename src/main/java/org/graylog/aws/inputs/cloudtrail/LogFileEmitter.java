@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.graylog.aws.inputs.cloudtrail.messages.TreeReader;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decompresses and parses a CloudTrail log file and hands its records to the input. Shared by everything that
+ * ingests log files, no matter how they have been found.
+ */
+class LogFileEmitter {
+    private static final Logger LOG = LoggerFactory.getLogger(LogFileEmitter.class);
+
+    private final TreeReader treeReader;
+    private final RecordDeduplicator deduplicator;
+    private final MessageInput sourceInput;
+    private final CloudTrailMetrics metrics;
+
+    LogFileEmitter(TreeReader treeReader, @Nullable RecordDeduplicator deduplicator, MessageInput sourceInput,
+                   CloudTrailMetrics metrics) {
+        this.treeReader = treeReader;
+        this.deduplicator = deduplicator;
+        this.sourceInput = sourceInput;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Emits all records of a gzip compressed log file and closes the given stream.
+     *
+     * @return the number of records in the log file
+     */
+    int emit(InputStream compressed) throws IOException {
+        final long start = System.nanoTime();
+        try (TimedInputStream logFile = new TimedInputStream(S3Reader.decompress(compressed))) {
+            final long[] emitNanos = {0};
+            final int records = treeReader.read(logFile, record -> {
+                LOG.debug("Processing message content.");
+
+                /*
+                 * We are using process and not processFailFast here even though we are using a
+                 * queue system (SQS) that could just deliver the message again when we are out of
+                 * internal Graylog2 capacity.
+                 *
+                 * Reason is that every notification in SQS contains batches of CloudTrail messages
+                 * that must be handled separately by Graylog2 (this loop) and we can only acknowledge
+                 * the SQS notification that may include multiple CloudTrail messages. If one single
+                 * internal message write fails, we would have to leave the whole notification on the
+                 * queue and then possibly duplicate messages that did not fail later in subsequent
+                 * write attempts.
+                 *
+                 * lol computers.
+                 */
+
+                if (deduplicator != null && deduplicator.isDuplicate(record.getEventId())) {
+                    LOG.trace("Dropping duplicate cloud trail record <{}>.", record.getEventId());
+                    return;
+                }
+
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Processing cloud trail record: {}", new String(record.getPayload(), StandardCharsets.UTF_8));
+                }
+
+                final long emitStart = System.nanoTime();
+                sourceInput.processRawMessage(new RawMessage(record.getPayload()));
+                emitNanos[0] += System.nanoTime() - emitStart;
+                if (deduplicator != null) {
+                    deduplicator.markSeen(record.getEventId());
+                }
+                metrics.records().mark();
+                recordLag(record.getEventTime(), record.getAwsRegion());
+            });
+
+            metrics.decompressionTime().update(logFile.nanos, TimeUnit.NANOSECONDS);
+            metrics.parseTime().update(System.nanoTime() - start - logFile.nanos - emitNanos[0], TimeUnit.NANOSECONDS);
+            metrics.recordsPerObject().update(records);
+            LOG.debug("[{}] records read from S3.", records);
+            return records;
+        } catch (JsonProcessingException e) {
+            metrics.parseFailures().mark();
+            throw e;
+        }
+    }
+
+    private void recordLag(@Nullable String eventTime, @Nullable String awsRegion) {
+        if (eventTime == null) {
+            return;
+        }
+        try {
+            metrics.recordLag(awsRegion).update(System.currentTimeMillis() - CloudTrailTimestamps.epochMillis(eventTime));
+        } catch (IllegalArgumentException e) {
+            LOG.trace("Invalid event time <{}>. Not recording the lag of the record.", eventTime);
+        }
+    }
+
+    /**
+     * Sums up the time spent reading from a stream. Decompression happens while the parser reads, so this is the
+     * only way to tell it apart from parsing.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private long nanos = 0;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.skip(n);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSNSNotification;
+import org.graylog.aws.inputs.cloudtrail.notifications.SQSAckTracker;
+import org.graylog.aws.s3.RangedObjectInputStream;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.graylog2.shared.utilities.StringUtils.f;
+
+/**
+ * Processes CloudTrail notifications in two stages that run concurrently with the SQS receives of the subscriber:
+ * <ol>
+ *     <li>The download stage fetches the compressed log file of a notification from S3 into memory.</li>
+ *     <li>The emit stage decompresses and parses the log file and hands its records to the input.</li>
+ * </ol>
+ * Both stages have their own worker pool, so log files are being downloaded while others are being emitted. The
+ * number of notifications in the pipeline is bounded, and so is the number of compressed bytes that have been read
+ * ahead. Decompressed data is never buffered, it is streamed record by record.
+ * <p>
+ * Log files that are larger than the ranged GET threshold are not read ahead as a whole. The download stage only
+ * fetches their first part and the emit stage streams the remaining parts, which are downloaded in parallel, into
+ * the decompressor in order. Parts that are downloaded ahead count against the same read-ahead budget.
+ * <p>
+ * Notifications for log files that have just been emitted completely are acknowledged right away, without
+ * downloading the log file again.
+ * <p>
+ * With a {@link ObjectSpool spool}, the download stage writes every log file to disk instead of keeping it in memory,
+ * and reads log files that are still spooled from an earlier delivery from disk instead of downloading them again.
+ * <p>
+ * While the input is throttled, the download stage does not start any new downloads. It returns the notifications to
+ * SQS right away instead, so they can be picked up by a node that is not under journal pressure.
+ */
+class NotificationPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationPipeline.class);
+
+    // The number of parts of a single large log file that are downloaded ahead of the decompressor.
+    private static final int RANGED_GET_WINDOW = 4;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final S3Reader s3Reader;
+    private final LogFileEmitter logFileEmitter;
+    private final SQSAckTracker ackTracker;
+    private final InputFailureRecorder inputFailureRecorder;
+    private final BooleanSupplier throttled;
+    private final long rangedGetThreshold;
+    private final ObjectSpool spool;
+    private final CompletedObjectCache completedObjects;
+    private final CloudTrailMetrics metrics;
+
+    private final Semaphore slots;
+    private final ByteBudget readAhead;
+    private final ExecutorService downloaders;
+    private final ExecutorService emitters;
+    private final ExecutorService rangeFetchers;
+
+    NotificationPipeline(int workerThreads,
+                         long readAheadBytes,
+                         long rangedGetThresholdBytes,
+                         @Nullable ObjectSpool spool,
+                         CompletedObjectCache completedObjects,
+                         S3Reader s3Reader,
+                         LogFileEmitter logFileEmitter,
+                         SQSAckTracker ackTracker,
+                         InputFailureRecorder inputFailureRecorder,
+                         BooleanSupplier throttled,
+                         CloudTrailMetrics metrics) {
+        this.s3Reader = s3Reader;
+        this.logFileEmitter = logFileEmitter;
+        this.ackTracker = ackTracker;
+        this.inputFailureRecorder = inputFailureRecorder;
+        this.throttled = throttled;
+        this.rangedGetThreshold = Math.max(1, rangedGetThresholdBytes);
+        this.spool = spool;
+        this.completedObjects = completedObjects;
+        this.metrics = metrics;
+
+        // Allows every emitter to work on one notification while every downloader prepares the next one.
+        this.slots = new Semaphore(2 * workerThreads);
+        this.readAhead = new ByteBudget(readAheadBytes);
+        metrics.readAheadBytes(readAhead::inUse);
+        this.downloaders = newWorkerPool(workerThreads, "cloudtrail-subscriber-download-%d");
+        this.emitters = newWorkerPool(workerThreads, "cloudtrail-subscriber-emit-%d");
+        this.rangeFetchers = newWorkerPool(workerThreads, "cloudtrail-subscriber-range-%d");
+    }
+
+    private static ExecutorService newWorkerPool(int threads, String nameFormat) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(nameFormat)
+                .setUncaughtExceptionHandler((t, e) -> LOG.error("Uncaught exception in CloudTrail subscriber worker.", e))
+                .build());
+    }
+
+    /**
+     * Hands a notification to the pipeline, waiting up to the given time for room in the pipeline.
+     *
+     * @return {@code true} if the notification has been accepted, {@code false} if the pipeline is still full
+     */
+    boolean offer(CloudtrailSNSNotification notification, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!slots.tryAcquire(timeout, unit)) {
+            return false;
+        }
+
+        try {
+            downloaders.execute(() -> download(notification));
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+        return true;
+    }
+
+    private void download(CloudtrailSNSNotification n) {
+        if (throttled.getAsBoolean()) {
+            LOG.debug("Input is throttled. Returning notification for S3 object <{}> to SQS.", n.getS3ObjectKey());
+            ackTracker.returned(n);
+            slots.release();
+            return;
+        }
+
+        if (completedObjects.isCompleted(n.getS3Bucket(), n.getS3ObjectKey(), n.getS3ObjectETag())) {
+            LOG.debug("S3 object <{}> has already been processed. Skipping.", n.getS3ObjectKey());
+            metrics.skippedObjects().mark();
+            ackTracker.succeeded(n);
+            slots.release();
+            return;
+        }
+
+        final InputStream spooled = openSpooled(n);
+        if (spooled != null) {
+            LOG.debug("Reading S3 object <{}> from spool.", n.getS3ObjectKey());
+            handOver(n, spooled, 0, n.getS3ObjectETag());
+            return;
+        }
+
+        InputStream compressed;
+        String eTag = n.getS3ObjectETag();
+        long reserved = 0;
+        try {
+            final Long expectedSize = n.getS3ObjectSize();
+            if (expectedSize != null) {
+                // Wait for the read-ahead budget before sending the request, so no connection idles while we wait.
+                reserved = Math.min(expectedSize, rangedGetThreshold);
+                readAhead.acquire(reserved);
+            }
+
+            // Unless we know better, only ask for the first part. Small log files fit into it completely.
+            final boolean small = expectedSize != null && expectedSize <= rangedGetThreshold;
+            final Timer.Context getTime = metrics.s3GetTime().time();
+            try (S3Object object = small
+                    ? s3Reader.getObject(n.getS3Bucket(), n.getS3ObjectKey())
+                    : s3Reader.getObjectRange(n.getS3Bucket(), n.getS3ObjectKey(), n.getS3ObjectETag(), 0, rangedGetThreshold - 1)) {
+                final long size = object.getObjectMetadata().getContentLength();
+                if (size != reserved) {
+                    readAhead.release(reserved);
+                    reserved = 0;
+                    readAhead.acquire(size);
+                    reserved = size;
+                }
+                final byte[] firstPart = IOUtils.toByteArray(object.getObjectContent(), size);
+                getTime.stop();
+                eTag = object.getObjectMetadata().getETag();
+
+                // The instance length is the size of the whole object, even if only a range has been requested.
+                final long objectSize = object.getObjectMetadata().getInstanceLength();
+                metrics.s3ObjectBytes().update(objectSize);
+                if (objectSize > size) {
+                    LOG.debug("Downloading S3 object <{}> of {} bytes in parts.", n.getS3ObjectKey(), objectSize);
+                    compressed = new RangedObjectInputStream(s3Reader, n.getS3Bucket(), n.getS3ObjectKey(),
+                            eTag, firstPart, objectSize, rangedGetThreshold,
+                            RANGED_GET_WINDOW, rangeFetchers, readAhead);
+                } else {
+                    compressed = new ByteArrayInputStream(firstPart);
+                }
+
+                if (spool != null) {
+                    compressed = spool.store(n.getS3Bucket(), n.getS3ObjectKey(), eTag, compressed);
+                    // The log file is on disk now, so it doesn't count against the read-ahead buffer anymore.
+                    readAhead.release(reserved);
+                    reserved = 0;
+                }
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            readAhead.release(reserved);
+            failed(n, e);
+            slots.release();
+            return;
+        }
+
+        handOver(n, compressed, reserved, eTag);
+    }
+
+    @Nullable
+    private InputStream openSpooled(CloudtrailSNSNotification n) {
+        if (spool == null) {
+            return null;
+        }
+        try {
+            return spool.open(n.getS3Bucket(), n.getS3ObjectKey(), n.getS3ObjectETag());
+        } catch (IOException e) {
+            LOG.warn("Could not read S3 object <{}> from spool. Downloading it again.", n.getS3ObjectKey(), e);
+            return null;
+        }
+    }
+
+    private void handOver(CloudtrailSNSNotification n, InputStream compressed, long size, @Nullable String eTag) {
+        try {
+            emitters.execute(() -> emit(n, compressed, size, eTag));
+        } catch (RejectedExecutionException e) {
+            IOUtils.closeQuietly(compressed);
+            failed(n, e);
+            readAhead.release(size);
+            slots.release();
+        }
+    }
+
+    private void emit(CloudtrailSNSNotification n, InputStream compressed, long size, @Nullable String eTag) {
+        try {
+            logFileEmitter.emit(compressed);
+
+            // All messages written. Ack notification once all objects of its SQS message are done.
+            completedObjects.completed(n.getS3Bucket(), n.getS3ObjectKey(), eTag);
+            ackTracker.succeeded(n);
+            inputFailureRecorder.setRunning();
+        } catch (Exception e) {
+            failed(n, e);
+        } finally {
+            readAhead.release(size);
+            slots.release();
+        }
+    }
+
+    private void failed(CloudtrailSNSNotification n, Exception e) {
+        ackTracker.failed(n);
+        inputFailureRecorder.setFailing(getClass(), f("Could not read CloudTrail log file for <%s>. Skipping.", n.getS3Bucket()), e);
+    }
+
+    /**
+     * Stops both stages. Notifications that are still in the pipeline are interrupted and left on the queue. Waits up
+     * to {@value #SHUTDOWN_TIMEOUT_SECONDS} seconds for the interrupted work to end, so the S3 client is not in use
+     * anymore afterwards.
+     */
+    void shutdown() {
+        downloaders.shutdownNow();
+        emitters.shutdownNow();
+        rangeFetchers.shutdownNow();
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+            for (ExecutorService pool : new ExecutorService[]{downloaders, emitters, rangeFetchers}) {
+                if (!pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    LOG.warn("CloudTrail log files are still being processed after {} seconds.", SHUTDOWN_TIMEOUT_SECONDS);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
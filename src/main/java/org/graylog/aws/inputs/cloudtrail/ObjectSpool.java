@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Keeps downloaded S3 objects on local disk until the SQS message that announced them has been deleted. If the
+ * message is delivered again, because the input has been restarted or processing failed, the object is read from
+ * disk instead of being downloaded again.
+ * <p>
+ * Every object is stored in a file named after a hash of its bucket and key, next to a small file holding its ETag.
+ * Both are written to a temporary file first and moved into place atomically, and the ETag file is written last, so
+ * an object is only ever read back if it has been spooled completely.
+ */
+class ObjectSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectSpool.class);
+
+    private static final String DATA_SUFFIX = ".gz";
+    private static final String ETAG_SUFFIX = ".etag";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    ObjectSpool(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Opens a spooled object. An object is only used if its ETag matches the given one, or if no ETag is known.
+     *
+     * @return the compressed content of the object, or {@code null} if it has not been spooled
+     */
+    @Nullable
+    InputStream open(String bucket, String key, @Nullable String eTag) throws IOException {
+        final String name = fileName(bucket, key);
+        final Path data = directory.resolve(name + DATA_SUFFIX);
+        final Path eTagFile = directory.resolve(name + ETAG_SUFFIX);
+        if (!Files.exists(eTagFile) || !Files.exists(data)) {
+            return null;
+        }
+
+        if (eTag != null && !eTag.equals(new String(Files.readAllBytes(eTagFile), StandardCharsets.UTF_8))) {
+            LOG.debug("Spooled S3 object <{}> is outdated.", key);
+            remove(bucket, key);
+            return null;
+        }
+
+        return Files.newInputStream(data);
+    }
+
+    /**
+     * Writes an object to the spool and closes the given stream.
+     *
+     * @return the compressed content of the spooled object
+     */
+    InputStream store(String bucket, String key, @Nullable String eTag, InputStream content) throws IOException {
+        final String name = fileName(bucket, key);
+        final Path data = directory.resolve(name + DATA_SUFFIX);
+        final Path eTagFile = directory.resolve(name + ETAG_SUFFIX);
+
+        final Path tempData = Files.createTempFile(directory, name, TEMP_SUFFIX);
+        final Path tempETag = Files.createTempFile(directory, name, TEMP_SUFFIX);
+        try (InputStream in = content) {
+            Files.copy(in, tempData, StandardCopyOption.REPLACE_EXISTING);
+            Files.write(tempETag, Strings.nullToEmpty(eTag).getBytes(StandardCharsets.UTF_8));
+
+            Files.deleteIfExists(eTagFile);
+            Files.move(tempData, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempETag, eTagFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempData);
+            Files.deleteIfExists(tempETag);
+        }
+
+        return Files.newInputStream(data);
+    }
+
+    /**
+     * Removes an object from the spool, if it has been spooled.
+     */
+    void remove(String bucket, String key) {
+        final String name = fileName(bucket, key);
+        try {
+            Files.deleteIfExists(directory.resolve(name + ETAG_SUFFIX));
+            Files.deleteIfExists(directory.resolve(name + DATA_SUFFIX));
+        } catch (IOException e) {
+            LOG.warn("Could not remove S3 object <{}> from spool directory <{}>.", key, directory, e);
+        }
+    }
+
+    /**
+     * Removes leftovers of interrupted writes and objects that have not been touched for the given time, e.g.
+     * because their SQS message has been moved to a dead-letter queue.
+     */
+    void purge(Duration maxAge) {
+        final Instant threshold = Instant.now().minus(maxAge);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)
+                        || Files.getLastModifiedTime(file).toInstant().isBefore(threshold)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not clean up spool directory <{}>.", directory, e);
+        }
+    }
+
+    private static String fileName(String bucket, String key) {
+        return Hashing.sha256().hashString(bucket + "/" + key, StandardCharsets.UTF_8).toString();
+    }
+}
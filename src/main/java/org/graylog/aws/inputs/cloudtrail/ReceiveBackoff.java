@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+/**
+ * Exponential backoff for the time the subscriber waits between two SQS receives that did not return any work.
+ * The wait starts at the initial delay, doubles with every further idle receive and never exceeds the maximum delay.
+ * A receive that returns work resets the backoff, so busy queues are drained without any waiting in between.
+ */
+class ReceiveBackoff {
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    private long currentDelayMillis = 0;
+
+    ReceiveBackoff(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+    }
+
+    long nextDelayMillis() {
+        currentDelayMillis = currentDelayMillis == 0 ? initialDelayMillis : Math.min(maxDelayMillis, currentDelayMillis * 2);
+        return currentDelayMillis;
+    }
+
+    void reset() {
+        currentDelayMillis = 0;
+    }
+}
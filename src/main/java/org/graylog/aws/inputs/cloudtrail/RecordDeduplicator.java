@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Ticker;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops CloudTrail records whose event ID has been seen recently. Duplicates come from redelivered SQS messages and
+ * from trails that overlap.
+ * <p>
+ * Event IDs are remembered in two Bloom filters that each cover half of the window. IDs of records that have been
+ * processed go into the current filter, and an ID counts as seen if it is in either of them. Checking an ID does not
+ * remember it, so a record that fails to be processed is not dropped when it is delivered again. Once the current
+ * filter covers half of the window, it becomes the previous one and the oldest filter is dropped. So an ID is
+ * remembered for at least half and at most the whole window after it has been processed, and memory use does not
+ * grow with the number of records. Like every
+ * Bloom filter, this produces false positives at the configured rate, which means that a small share of unique
+ * records is dropped, too.
+ */
+class RecordDeduplicator {
+    private final int expectedInsertions;
+    private final double falsePositiveRate;
+    private final long generationNanos;
+    private final Ticker ticker;
+    private final Meter duplicates;
+
+    private volatile BloomFilter<CharSequence> current;
+    private volatile BloomFilter<CharSequence> previous;
+    private volatile long generationStart;
+
+    /**
+     * @param expectedInsertions the number of records that are expected within half of the window
+     * @param falsePositiveRate  the share of unique records that may be mistaken for duplicates
+     * @param duplicates         marked for every record that is dropped
+     */
+    RecordDeduplicator(int expectedInsertions, double falsePositiveRate, long window, TimeUnit unit, Meter duplicates) {
+        this(expectedInsertions, falsePositiveRate, window, unit, duplicates, Ticker.systemTicker());
+    }
+
+    RecordDeduplicator(int expectedInsertions, double falsePositiveRate, long window, TimeUnit unit, Meter duplicates,
+                       Ticker ticker) {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        this.falsePositiveRate = falsePositiveRate;
+        this.generationNanos = Math.max(1, unit.toNanos(window) / 2);
+        this.ticker = ticker;
+        this.duplicates = duplicates;
+
+        this.current = newFilter();
+        this.previous = newFilter();
+        this.generationStart = ticker.read();
+    }
+
+    /**
+     * @return {@code true} if the event ID has been seen before and the record should be dropped
+     */
+    boolean isDuplicate(@Nullable String eventId) {
+        if (eventId == null) {
+            return false;
+        }
+
+        rotateIfNeeded();
+
+        final boolean duplicate = current.mightContain(eventId) || previous.mightContain(eventId);
+        if (duplicate) {
+            duplicates.mark();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remembers the given event ID. Call this once the record has been processed.
+     */
+    void markSeen(@Nullable String eventId) {
+        if (eventId == null) {
+            return;
+        }
+
+        rotateIfNeeded();
+        current.put(eventId);
+    }
+
+    private void rotateIfNeeded() {
+        if (ticker.read() - generationStart < generationNanos) {
+            return;
+        }
+        synchronized (this) {
+            final long now = ticker.read();
+            if (now - generationStart >= generationNanos) {
+                previous = current;
+                current = newFilter();
+                generationStart = now;
+            }
+        }
+    }
+
+    private BloomFilter<CharSequence> newFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveRate);
+    }
+}
@@ -17,12 +17,10 @@
 package org.graylog.aws.inputs.cloudtrail.json;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.Maps;
 import com.graylog2.input.cloudtrail.json.CloudTrailResponseElements;
+import org.graylog2.plugin.Message;
 
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.Map;
 import java.util.Optional;
 
 public class CloudTrailRecord implements Serializable {
@@ -34,7 +32,8 @@ public class CloudTrailRecord implements Serializable {
     @JsonProperty("userIdentity")
     public CloudTrailUserIdentity userIdentity;
 
-    //adding responseElements
+    // Only a few known properties are bound. The parser skips all others without building anything, so unlike the
+    // request parameters, the response elements need no raw representation.
     @JsonProperty("responseElements")
     public CloudTrailResponseElements responseElements;
 
@@ -58,53 +57,52 @@ public class CloudTrailRecord implements Serializable {
     @JsonProperty("recipientAccountId")
     public String recipientAccountId;
     @JsonProperty("additionalEventData")
-    public Map<String, Object> additionalEventData;
+    public RawJson additionalEventData;
 
     //adding errorMessage
     @JsonProperty("errorMessage")
     public String errorMessage;
 
     @JsonProperty("requestParameters")
-    public Map<String, Object> requestParameters;
-
-    public Map<String, Object> additionalFieldsAsMap() {
-        Map<String, Object> m = Maps.newHashMap();
-
-        m.put("event_source", eventSource);
-        m.put("event_name", eventName);
-        m.put("aws_region", awsRegion);
-        m.put("source_address", sourceIPAddress);
-        m.put("user_agent", userAgent);
-        m.put("request_id", requestID);
-        m.put("event_id", eventID);
-        m.put("event_type", eventType);
-        m.put("recipient_account_id", recipientAccountId);
+    public RawJson requestParameters;
+
+    /**
+     * Adds the fields of this record, its user identity and its response elements to the given message.
+     */
+    public void addFieldsTo(Message m) {
+        m.addField("event_source", eventSource);
+        m.addField("event_name", eventName);
+        m.addField("aws_region", awsRegion);
+        m.addField("source_address", sourceIPAddress);
+        m.addField("user_agent", userAgent);
+        m.addField("request_id", requestID);
+        m.addField("event_id", eventID);
+        m.addField("event_type", eventType);
+        m.addField("recipient_account_id", recipientAccountId);
 
         if (additionalEventData != null) {
-            m.put("additional_event_data", additionalEventData.toString());
+            m.addField("additional_event_data", additionalEventData.format(false));
         }
 
         //adding errorMessage if present
         if (errorMessage != null) {
-            m.put("errorMessage", errorMessage);
+            m.addField("errorMessage", errorMessage);
         }
 
         if (userIdentity != null) {
-            m.putAll(userIdentity.additionalFieldsAsMap());
+            userIdentity.addFieldsTo(m);
         }
 
         //adding responseElements if present
         if (responseElements != null) {
-            m.putAll(responseElements.additionalFieldsAsMap());
+            responseElements.addFieldsTo(m);
         }
-
-        return m;
     }
 
     public String getFullMessage() {
-        if (requestParameters != null && !requestParameters.isEmpty()) {
+        if (requestParameters != null && !requestParameters.isEmptyObject()) {
             // Le pretty print.
-            return Arrays.toString(requestParameters.entrySet().toArray());
+            return requestParameters.format(true);
         }
 
         return null;
@@ -17,9 +17,7 @@
 package org.graylog.aws.inputs.cloudtrail.json;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.Maps;
-
-import java.util.Map;
+import org.graylog2.plugin.Message;
 
 public class CloudTrailUserIdentity {
     @JsonProperty("type")
@@ -37,22 +35,18 @@ public class CloudTrailUserIdentity {
     @JsonProperty("sessionContext")
     public CloudTrailSessionContext sessionContext;
 
-    public Map<String, Object> additionalFieldsAsMap() {
-        Map<String, Object> m = Maps.newHashMap();
-
-        m.put("user_type", type);
-        m.put("user_name", userName);
-        m.put("user_principal_id", principalId);
-        m.put("user_principal_arn", arn);
-        m.put("user_account_id", accountId);
-        m.put("user_access_key_id", accessKeyId);
+    public void addFieldsTo(Message m) {
+        m.addField("user_type", type);
+        m.addField("user_name", userName);
+        m.addField("user_principal_id", principalId);
+        m.addField("user_principal_arn", arn);
+        m.addField("user_account_id", accountId);
+        m.addField("user_access_key_id", accessKeyId);
 
         if (sessionContext != null && sessionContext.attributes != null) {
-            m.put("user_session_creation_date", sessionContext.attributes.creationDate);
-            m.put("user_session_mfa_authenticated", Boolean.valueOf(sessionContext.attributes.mfaAuthenticated));
+            m.addField("user_session_creation_date", sessionContext.attributes.creationDate);
+            m.addField("user_session_mfa_authenticated", Boolean.valueOf(sessionContext.attributes.mfaAuthenticated));
         }
-
-        return m;
     }
 
 }
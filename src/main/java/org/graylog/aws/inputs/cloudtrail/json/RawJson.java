@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A JSON value of a CloudTrail record that has no model, like the request parameters of an API call. These values
+ * can be huge, and they are only ever written to a message as a string.
+ * <p>
+ * The {@link Format} is an output format, chosen when the record is read with the format as reader attribute under
+ * the key {@code RawJson.Format.class}. Only the opt-in {@link Format#JSON JSON} format avoids binding: the value is
+ * kept as compact JSON text and written as is. The {@link Format#LEGACY legacy} format, which is also used without
+ * the attribute, binds the value to maps and lists right away, like any other property, because its output is the
+ * string form of those maps and lists.
+ */
+@JsonDeserialize(using = RawJson.Deserializer.class)
+public class RawJson implements Serializable {
+    private static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] json;
+    private final Object value;
+
+    private RawJson(@Nullable byte[] json, @Nullable Object value) {
+        this.json = json;
+        this.value = value;
+    }
+
+    /**
+     * @param json compact JSON text, written as is
+     */
+    public static RawJson ofJson(byte[] json) {
+        return new RawJson(json, null);
+    }
+
+    /**
+     * @param value a bound value, written in the legacy format
+     */
+    public static RawJson ofValue(@Nullable Object value) {
+        return new RawJson(null, value);
+    }
+
+    public boolean isEmptyObject() {
+        if (json != null) {
+            return Arrays.equals(json, EMPTY_OBJECT);
+        }
+        return value instanceof Map && ((Map<?, ?>) value).isEmpty();
+    }
+
+    /**
+     * Writes the value in the format it has been read in. In the legacy format, objects are written as
+     * {@code {key=value}}, or, with {@code entryList}, as {@code [key=value]}.
+     */
+    public String format(boolean entryList) {
+        if (json != null) {
+            return new String(json, StandardCharsets.UTF_8);
+        }
+        if (entryList && value instanceof Map) {
+            return Arrays.toString(((Map<?, ?>) value).entrySet().toArray());
+        }
+        return String.valueOf(value);
+    }
+
+    @Override
+    public String toString() {
+        return format(false);
+    }
+
+    /**
+     * How JSON values are read and written to messages.
+     */
+    public enum Format {
+        /**
+         * Like Java maps and lists, e.g. {@code {key=value, list=[1, 2]}}.
+         */
+        LEGACY,
+        /**
+         * As compact JSON, e.g. {@code {"key":"value","list":[1,2]}}.
+         */
+        JSON
+    }
+
+    public static class Deserializer extends StdDeserializer<RawJson> {
+        public Deserializer() {
+            super(RawJson.class);
+        }
+
+        @Override
+        public RawJson deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (ctxt.getAttribute(Format.class) != Format.JSON) {
+                return RawJson.ofValue(ctxt.readValue(p, Object.class));
+            }
+
+            // Copies the tokens of the value, which is a lot cheaper than binding them.
+            final ByteArrayBuilder buffer = new ByteArrayBuilder();
+            try (JsonGenerator generator = p.getCodec().getFactory().createGenerator(buffer)) {
+                generator.copyCurrentStructure(p);
+            }
+            return RawJson.ofJson(buffer.toByteArray());
+        }
+    }
+}
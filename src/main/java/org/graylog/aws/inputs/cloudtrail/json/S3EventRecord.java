@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.json;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A single record of an S3 event notification, as sent by S3 directly to SQS or through SNS.
+ */
+public class S3EventRecord {
+    @JsonProperty("eventSource")
+    public String eventSource;
+    @JsonProperty("eventName")
+    public String eventName;
+    @JsonProperty("s3")
+    public S3Entity s3;
+
+    public static class S3Entity {
+        @JsonProperty("bucket")
+        public Bucket bucket;
+        @JsonProperty("object")
+        public S3Object object;
+    }
+
+    public static class Bucket {
+        @JsonProperty("name")
+        public String name;
+    }
+
+    public static class S3Object {
+        // URL-encoded, like in the query string of an HTTP request.
+        @JsonProperty("key")
+        public String key;
+        @JsonProperty("size")
+        public Long size;
+        @JsonProperty("eTag")
+        public String eTag;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.messages;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single CloudTrail record as it has been read from a CloudTrail log file. The payload is the JSON of the record
+ * itself, including all fields that are not part of our CloudTrail model. A few top-level fields that the transport
+ * needs are extracted while the record is copied, so the transport never has to bind the record to a POJO.
+ */
+public class RawRecord {
+    private final byte[] payload;
+    private final String eventId;
+    private final String eventTime;
+    private final String awsRegion;
+
+    RawRecord(byte[] payload, @Nullable String eventId, @Nullable String eventTime, @Nullable String awsRegion) {
+        this.payload = payload;
+        this.eventId = eventId;
+        this.eventTime = eventTime;
+        this.awsRegion = awsRegion;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Nullable
+    public String getEventId() {
+        return eventId;
+    }
+
+    @Nullable
+    public String getEventTime() {
+        return eventTime;
+    }
+
+    @Nullable
+    public String getAwsRegion() {
+        return awsRegion;
+    }
+}
@@ -16,23 +16,105 @@
  */
 package org.graylog.aws.inputs.cloudtrail.messages;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableList;
-import org.graylog.aws.inputs.cloudtrail.json.CloudTrailRecord;
-import org.graylog.aws.inputs.cloudtrail.json.CloudTrailRecordList;
 
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
 
 public class TreeReader {
+    private static final String RECORDS_FIELD = "Records";
+    private static final String EVENT_ID_FIELD = "eventID";
+    private static final String EVENT_TIME_FIELD = "eventTime";
+    private static final String AWS_REGION_FIELD = "awsRegion";
+
     private final ObjectMapper om;
 
     public TreeReader(ObjectMapper om) {
         this.om = om;
     }
 
-    public List<CloudTrailRecord> read(String json) throws IOException {
-        CloudTrailRecordList tree = om.readValue(json, CloudTrailRecordList.class);
-        return ImmutableList.copyOf(tree.records);
+    /**
+     * Streams the records of a CloudTrail log file to the given consumer, one record at a time. Only the record that
+     * is currently being handed to the consumer is materialized, independent of the size of the log file.
+     * <p>
+     * Records are not bound to {@link org.graylog.aws.inputs.cloudtrail.json.CloudTrailRecord}. Their JSON is copied
+     * token by token instead, so the codec is the only place where records get parsed and no field is lost.
+     *
+     * @return the number of records that have been read
+     */
+    public int read(InputStream json, RecordConsumer consumer) throws IOException {
+        try (JsonParser parser = om.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "CloudTrail log file does not start with a JSON object.");
+            }
+
+            int count = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+
+                if (RECORDS_FIELD.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(copyRecord(parser));
+                        count++;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Copies the JSON object the parser is currently pointing at. Leaves the parser on the closing token of the object.
+     */
+    private RawRecord copyRecord(JsonParser parser) throws IOException {
+        String eventId = null;
+        String eventTime = null;
+        String awsRegion = null;
+
+        final ByteArrayBuilder buffer = new ByteArrayBuilder();
+        try (JsonGenerator generator = om.getFactory().createGenerator(buffer)) {
+            String topLevelField = null;
+            int depth = 0;
+            JsonToken token = parser.currentToken();
+            do {
+                if (depth == 1) {
+                    if (token == JsonToken.FIELD_NAME) {
+                        topLevelField = parser.getCurrentName();
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        if (EVENT_ID_FIELD.equals(topLevelField)) {
+                            eventId = parser.getText();
+                        } else if (EVENT_TIME_FIELD.equals(topLevelField)) {
+                            eventTime = parser.getText();
+                        } else if (AWS_REGION_FIELD.equals(topLevelField)) {
+                            awsRegion = parser.getText();
+                        }
+                    }
+                }
+
+                generator.copyCurrentEvent(parser);
+
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+            } while (depth > 0 && (token = parser.nextToken()) != null);
+        }
+
+        return new RawRecord(buffer.toByteArray(), eventId, eventTime, awsRegion);
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(RawRecord record) throws IOException;
     }
 }
@@ -16,15 +16,26 @@
  */
 package org.graylog.aws.inputs.cloudtrail.notifications;
 
+import javax.annotation.Nullable;
+
 public class CloudtrailSNSNotification {
     private final String s3Bucket;
     private final String s3ObjectKey;
     private final String receiptHandle;
+    private final Long s3ObjectSize;
+    private final String s3ObjectETag;
 
     protected CloudtrailSNSNotification(String receiptHandle, String s3Bucket, String s3ObjectKey) {
+        this(receiptHandle, s3Bucket, s3ObjectKey, null, null);
+    }
+
+    protected CloudtrailSNSNotification(String receiptHandle, String s3Bucket, String s3ObjectKey,
+                                        @Nullable Long s3ObjectSize, @Nullable String s3ObjectETag) {
         this.receiptHandle = receiptHandle;
         this.s3Bucket = s3Bucket;
         this.s3ObjectKey = s3ObjectKey;
+        this.s3ObjectSize = s3ObjectSize;
+        this.s3ObjectETag = s3ObjectETag;
     }
 
     public String getReceiptHandle() {
@@ -39,4 +50,17 @@ public class CloudtrailSNSNotification {
         return s3ObjectKey;
     }
 
+    /**
+     * The size of the S3 object in bytes, if the notification carried it. Only S3 event notifications do.
+     */
+    @Nullable
+    public Long getS3ObjectSize() {
+        return s3ObjectSize;
+    }
+
+    @Nullable
+    public String getS3ObjectETag() {
+        return s3ObjectETag;
+    }
+
 }
@@ -17,69 +17,191 @@
 package org.graylog.aws.inputs.cloudtrail.notifications;
 
 import com.amazonaws.services.sqs.model.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.graylog.aws.inputs.cloudtrail.json.CloudtrailWriteNotification;
-import org.graylog.aws.json.SQSMessage;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.graylog.aws.inputs.cloudtrail.json.S3EventRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Turns SQS messages into {@link CloudtrailSNSNotification notifications}.
+ * <p>
+ * Understands CloudTrail notifications ({@code s3Bucket} and {@code s3ObjectKey}) and S3 event notifications
+ * ({@code Records}), both wrapped in an SNS envelope and delivered raw, i.e. directly by S3 or by SNS with raw message
+ * delivery enabled. The message body is streamed in a single pass. If it turns out to be an SNS envelope, the
+ * embedded document is read straight from the parser's text buffer, so it is never materialized as an intermediate
+ * string. Instances are thread-safe and meant to be reused.
+ * <p>
+ * Messages that are known not to announce any log file, i.e. the CloudTrail validation message, S3 test events and
+ * S3 events other than {@code ObjectCreated}, yield no notifications. Everything else that does not announce a log
+ * file is rejected, so it stays on the queue and can be moved to a dead-letter queue.
+ */
 public class CloudtrailSNSNotificationParser {
 
     private static final String CLOUD_TRAIL_VALIDATION_MESSAGE = "CloudTrail validation message.";
+    private static final String S3_TEST_EVENT = "s3:TestEvent";
+    private static final String S3_EVENT_SOURCE = "aws:s3";
+    private static final String S3_OBJECT_CREATED_PREFIX = "ObjectCreated:";
     private static final Logger LOG = LoggerFactory.getLogger(CloudtrailSNSNotificationParser.class);
 
-    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+    private final ObjectReader objectKeysReader;
+    private final ObjectReader s3RecordsReader;
 
     public CloudtrailSNSNotificationParser(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+        this.objectKeysReader = objectMapper.readerFor(new TypeReference<List<String>>() {})
+                .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+        this.s3RecordsReader = objectMapper.readerFor(new TypeReference<List<S3EventRecord>>() {})
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
     }
 
-    public List<CloudtrailSNSNotification> parse(Message message) {
-
-        LOG.debug("Parsing message.");
-        try {
-            LOG.debug("Reading message body {}.", message.getBody());
-            final SQSMessage envelope = objectMapper.readValue(message.getBody(), SQSMessage.class);
+    /**
+     * @return the notifications of the log files the message announces, empty if it is known not to announce any
+     * @throws IOException if the message cannot be parsed or has an unknown format
+     */
+    public List<CloudtrailSNSNotification> parse(Message message) throws IOException {
+        LOG.trace("Parsing message body {}.", message.getBody());
 
-            if (envelope.message == null) {
-                LOG.warn("Message is empty. Processing of message has been aborted. Verify that the SQS subscription in AWS is NOT set to send raw data.");
-                return Collections.emptyList();
+        try (JsonParser parser = jsonFactory.createParser(message.getBody())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Message is not a JSON object.");
             }
 
-            LOG.debug("Reading message envelope {}.", envelope.message);
-            if (envelope.message.contains(CLOUD_TRAIL_VALIDATION_MESSAGE)) {
-                return Collections.emptyList();
+            return parseDocument(message.getReceiptHandle(), parser, true);
+        }
+    }
+
+    /**
+     * Reads the fields of the JSON object the parser is positioned at, which is either an SNS envelope (only if
+     * {@code envelope} is set), a CloudTrail notification or an S3 event notification.
+     */
+    private List<CloudtrailSNSNotification> parseDocument(String receiptHandle, JsonParser parser, boolean envelope) throws IOException {
+        String s3Bucket = null;
+        List<String> s3ObjectKeys = null;
+        List<S3EventRecord> s3Records = null;
+        boolean s3TestEvent = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "Message":
+                    if (envelope && value == JsonToken.VALUE_STRING) {
+                        return parseEmbedded(receiptHandle, parser);
+                    }
+                    break;
+                case "s3Bucket":
+                    s3Bucket = parser.getValueAsString();
+                    break;
+                case "s3ObjectKey":
+                    s3ObjectKeys = objectKeysReader.readValue(parser);
+                    break;
+                case "Records":
+                    s3Records = s3RecordsReader.readValue(parser);
+                    break;
+                case "Event":
+                    s3TestEvent = S3_TEST_EVENT.equals(parser.getValueAsString());
+                    break;
+                default:
+                    break;
             }
+            parser.skipChildren();
+        }
+
+        if (s3ObjectKeys != null) {
+            return fromCloudTrailNotification(receiptHandle, s3Bucket, s3ObjectKeys);
+        }
+        if (s3Records != null) {
+            return fromS3Event(receiptHandle, s3Records);
+        }
+        if (s3TestEvent) {
+            LOG.debug("Ignoring S3 test event.");
+            return Collections.emptyList();
+        }
+
+        if (envelope) {
+            throw new IOException("Message is neither an SNS notification, a CloudTrail notification nor an S3 event notification.");
+        }
+        throw new IOException("SNS notification is neither a CloudTrail notification nor an S3 event notification.");
+    }
+
+    private List<CloudtrailSNSNotification> parseEmbedded(String receiptHandle, JsonParser envelope) throws IOException {
+        // Only valid until the envelope parser advances, which it doesn't while the embedded document is read.
+        final char[] text = envelope.getTextCharacters();
+        final int offset = envelope.getTextOffset();
+        final int length = envelope.getTextLength();
 
-            final CloudtrailWriteNotification notification = objectMapper.readValue(envelope.message, CloudtrailWriteNotification.class);
+        if (startsWith(text, offset, length, CLOUD_TRAIL_VALIDATION_MESSAGE)) {
+            return Collections.emptyList();
+        }
 
-            final List<String> s3ObjectKeys = notification.s3ObjectKey;
-            if (s3ObjectKeys == null) {
-                LOG.debug("No S3 object keys parsed.");
-                return Collections.emptyList();
+        try (JsonParser embedded = jsonFactory.createParser(text, offset, length)) {
+            if (embedded.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("SNS notification does not contain a JSON object.");
             }
+            return parseDocument(receiptHandle, embedded, false);
+        }
+    }
+
+    private List<CloudtrailSNSNotification> fromCloudTrailNotification(String receiptHandle, String s3Bucket, List<String> s3ObjectKeys) {
+        LOG.debug("Processing [{}] S3 keys.", s3ObjectKeys.size());
+        final List<CloudtrailSNSNotification> notifications = new ArrayList<>(s3ObjectKeys.size());
+        for (String s3ObjectKey : s3ObjectKeys) {
+            notifications.add(new CloudtrailSNSNotification(receiptHandle, s3Bucket, s3ObjectKey));
+        }
+
+        return notifications;
+    }
 
-            LOG.debug("Processing [{}] S3 keys.", s3ObjectKeys.size());
-            final List<CloudtrailSNSNotification> notifications = new ArrayList<>(s3ObjectKeys.size());
-            for (String s3ObjectKey : s3ObjectKeys) {
-                notifications.add(new CloudtrailSNSNotification(message.getReceiptHandle(), notification.s3Bucket, s3ObjectKey));
+    private List<CloudtrailSNSNotification> fromS3Event(String receiptHandle, List<S3EventRecord> records) throws UnsupportedEncodingException {
+        final List<CloudtrailSNSNotification> notifications = new ArrayList<>(records.size());
+        for (S3EventRecord record : records) {
+            if (!S3_EVENT_SOURCE.equals(record.eventSource) || record.eventName == null || !record.eventName.startsWith(S3_OBJECT_CREATED_PREFIX)) {
+                LOG.debug("Skipping S3 event <{}> from <{}>.", record.eventName, record.eventSource);
+                continue;
+            }
+            if (record.s3 == null || record.s3.bucket == null || record.s3.object == null || record.s3.object.key == null) {
+                LOG.debug("Skipping S3 event without bucket or object key.");
+                continue;
             }
+            if (record.s3.object.size != null && record.s3.object.size == 0) {
+                // Folder placeholders and the like. There's nothing to read, and an empty file isn't valid gzip.
+                LOG.debug("Skipping empty S3 object <{}>.", record.s3.object.key);
+                continue;
+            }
+
+            final String s3ObjectKey = URLDecoder.decode(record.s3.object.key, StandardCharsets.UTF_8.name());
+            notifications.add(new CloudtrailSNSNotification(receiptHandle, record.s3.bucket.name, s3ObjectKey,
+                    record.s3.object.size, record.s3.object.eTag));
+        }
 
-            LOG.debug("Returning [{}] notifications.", notifications.size());
-            return notifications;
-        } catch (IOException e) {
-            LOG.error("Parsing exception.", e);
-            /* Don't throw an exception that would halt processing for one parsing failure.
-             * Sometimes occasional non-JSON test messages will come through. If this happens,
-             * just log the error and keep processing.
-              *
-              * Returning an empty list here is OK and should be caught by the caller. */
-            return new ArrayList<>();
+        LOG.debug("Processing [{}] S3 keys from [{}] S3 events.", notifications.size(), records.size());
+        return notifications;
+    }
+
+    private static boolean startsWith(char[] text, int offset, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
         }
+        return true;
     }
 }
@@ -16,71 +16,313 @@
  */
 package org.graylog.aws.inputs.cloudtrail.notifications;
 
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.regions.Region;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
-import okhttp3.HttpUrl;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog.aws.auth.AWSAuthProvider;
-import org.graylog.aws.config.Proxy;
+import org.graylog.aws.inputs.cloudtrail.CloudTrailMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class CloudtrailSQSClient {
     private static final Logger LOG = LoggerFactory.getLogger(CloudtrailSQSClient.class);
 
-    private final AmazonSQS sqs;
+    public static final int MAX_WAIT_TIME_SECONDS = 20;
+    // The maximum number of entries SQS accepts in a single batch request.
+    private static final int MAX_BATCH_SIZE = 10;
+    /*
+     * Requests only wait on the network, a few threads are enough for a receive, a heartbeat, a flush and a queue
+     * depth sample in parallel. The client is not shared with other inputs, so their long polls never take these.
+     */
+    private static final int REQUEST_THREADS = 4;
+
+    private final AmazonSQSAsync sqs;
     private final String queueName;
-    private final ObjectMapper objectMapper;
+    private final CloudtrailSNSNotificationParser parser;
+    private final int waitTimeSeconds;
+    private final int visibilityTimeoutSeconds;
+    private final CloudTrailMetrics metrics;
+
+    /**
+     * @param sqs                      the SQS client to use, shut down together with this client. It must not be
+     *                                 shared with other users, receives hold its request threads while long polling.
+     * @param waitTimeSeconds          how long a receive waits for messages to arrive on an empty queue. {@code 0}
+     *                                 disables long polling, SQS caps the value at {@value #MAX_WAIT_TIME_SECONDS} seconds.
+     * @param visibilityTimeoutSeconds how long received messages are hidden from other consumers before they are
+     *                                 delivered again, unless their visibility is extended.
+     */
+    public CloudtrailSQSClient(AmazonSQSAsync sqs, String queueName, ObjectMapper objectMapper,
+                               int waitTimeSeconds, int visibilityTimeoutSeconds, CloudTrailMetrics metrics) {
+        this.sqs = sqs;
+        this.queueName = queueName;
+        this.parser = new CloudtrailSNSNotificationParser(objectMapper);
+        this.waitTimeSeconds = Math.max(0, Math.min(MAX_WAIT_TIME_SECONDS, waitTimeSeconds));
+        this.visibilityTimeoutSeconds = Math.max(1, visibilityTimeoutSeconds);
+        this.metrics = metrics;
+    }
 
-    public CloudtrailSQSClient(Region region, String queueName, AWSAuthProvider authProvider, HttpUrl proxyUrl, ObjectMapper objectMapper) {
-        AmazonSQSClientBuilder clientBuilder = AmazonSQSClientBuilder.standard().withRegion(region.getName()).withCredentials(authProvider);
+    public int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    /**
+     * Starts receiving the next notifications without blocking the calling thread. The returned future completes
+     * once a receive has returned messages, or has waited for them in vain.
+     * <p>
+     * Messages that are known not to announce any log file, like S3 test events or other S3 events, are deleted right
+     * away. Nothing would ever acknowledge them otherwise, so they would be delivered again and again. Messages that
+     * cannot be parsed are left on the queue, so they are moved to a dead-letter queue if one is configured.
+     * <p>
+     * Cancelling the returned future cancels a receive that is still waiting for messages.
+     */
+    public CompletableFuture<List<CloudtrailSNSNotification>> receiveNotifications() {
+        LOG.debug("Fetching SQS CloudTrail notifications.");
 
-        if (proxyUrl != null) {
-            clientBuilder.withClientConfiguration(Proxy.forAWS(proxyUrl));
+        ReceiveMessageRequest request = new ReceiveMessageRequest(queueName);
+        request.setMaxNumberOfMessages(10);
+        request.setWaitTimeSeconds(waitTimeSeconds);
+        request.setVisibilityTimeout(visibilityTimeoutSeconds);
+        request.withAttributeNames(MessageSystemAttributeName.SentTimestamp.toString());
+
+        final Timer.Context receiveTime = metrics.sqsReceiveTime().time();
+        final CompletableFuture<ReceiveMessageResult> receive = call((AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult> handler) ->
+                sqs.receiveMessageAsync(request, handler));
+        final CompletableFuture<List<CloudtrailSNSNotification>> received = receive.thenApply(result -> {
+            receiveTime.stop();
+            LOG.debug("Received [{}] SQS CloudTrail notifications.", result.getMessages().size());
+            final long now = System.currentTimeMillis();
+            long oldestMessageAge = 0;
+            List<CloudtrailSNSNotification> notifications = Lists.newArrayList();
+            List<String> irrelevant = new ArrayList<>();
+            for (Message message : result.getMessages()) {
+                oldestMessageAge = Math.max(oldestMessageAge, age(message, now));
+                final List<CloudtrailSNSNotification> parsed;
+                try {
+                    parsed = parser.parse(message);
+                } catch (IOException e) {
+                    LOG.warn("Could not parse SQS message <{}>. Leaving it on the queue.", message.getMessageId(), e);
+                    metrics.parseFailures().mark();
+                    continue;
+                }
+                if (parsed.isEmpty()) {
+                    irrelevant.add(message.getReceiptHandle());
+                }
+                notifications.addAll(parsed);
+            }
+            metrics.oldestMessageAge(oldestMessageAge);
+            if (!irrelevant.isEmpty()) {
+                LOG.debug("Deleting [{}] SQS messages that do not announce any CloudTrail log file.", irrelevant.size());
+                // Messages that could not be deleted are received and deleted again.
+                deleteMessagesAsync(irrelevant);
+            }
+            metrics.notifications().mark(notifications.size());
+            return notifications;
+        });
+        received.whenComplete((result, e) -> {
+            if (received.isCancelled()) {
+                receive.cancel(true);
+            }
+        });
+        return received;
+    }
+
+    private static long age(Message message, long now) {
+        final String sentTimestamp = message.getAttributes().get(MessageSystemAttributeName.SentTimestamp.toString());
+        if (sentTimestamp == null) {
+            return 0;
         }
+        try {
+            return Math.max(0, now - Long.parseLong(sentTimestamp));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-        this.sqs = clientBuilder.build();
+    /**
+     * Asks SQS for the approximate number of messages on the queue and updates the queue depth metrics.
+     */
+    public CompletableFuture<Void> sampleQueueDepth() {
+        final GetQueueAttributesRequest request = new GetQueueAttributesRequest(queueName)
+                .withAttributeNames(QueueAttributeName.ApproximateNumberOfMessages,
+                        QueueAttributeName.ApproximateNumberOfMessagesNotVisible);
 
-        this.queueName = queueName;
-        this.objectMapper = objectMapper;
+        return call((AsyncHandler<GetQueueAttributesRequest, GetQueueAttributesResult> handler) ->
+                sqs.getQueueAttributesAsync(request, handler)).thenAccept(result -> {
+            final Map<String, String> attributes = result.getAttributes();
+            metrics.queueDepth(
+                    Long.parseLong(attributes.getOrDefault(QueueAttributeName.ApproximateNumberOfMessages.toString(), "0")),
+                    Long.parseLong(attributes.getOrDefault(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), "0")));
+        });
     }
 
-    public List<CloudtrailSNSNotification> getNotifications() {
+    /**
+     * Deletes the SQS messages with the given receipt handles, using as few batch requests as possible. The batch
+     * requests are sent in parallel.
+     *
+     * @return the receipt handles of the messages that could not be deleted but may be deleted by trying again
+     */
+    public List<String> deleteMessages(List<String> receiptHandles) {
+        return deleteMessagesAsync(receiptHandles).join();
+    }
 
-        LOG.debug("Fetching SQS CloudTrail notifications.");
+    private CompletableFuture<List<String>> deleteMessagesAsync(List<String> receiptHandles) {
+        final List<CompletableFuture<List<String>>> requests = new ArrayList<>();
+        for (int offset = 0; offset < receiptHandles.size(); offset += MAX_BATCH_SIZE) {
+            final List<String> batch = receiptHandles.subList(offset, Math.min(receiptHandles.size(), offset + MAX_BATCH_SIZE));
+            LOG.debug("Deleting [{}] SQS CloudTrail notifications.", batch.size());
 
-        List<CloudtrailSNSNotification> notifications = Lists.newArrayList();
+            final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i)));
+            }
 
-        ReceiveMessageRequest request = new ReceiveMessageRequest(queueName);
-        request.setMaxNumberOfMessages(10);
-        ReceiveMessageResult result = sqs.receiveMessage(request);
+            final DeleteMessageBatchRequest request = new DeleteMessageBatchRequest()
+                    .withQueueUrl(queueName)
+                    .withEntries(entries);
+            final Timer.Context deleteTime = metrics.sqsDeleteTime().time();
+            requests.add(call((AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult> handler) ->
+                    sqs.deleteMessageBatchAsync(request, handler)).handle((result, e) -> {
+                deleteTime.stop();
+                if (e != null) {
+                    LOG.warn("Could not delete [{}] SQS CloudTrail notifications.", batch.size(), e);
+                    return batch;
+                }
+
+                final List<String> retryable = new ArrayList<>();
+                for (BatchResultErrorEntry failure : result.getFailed()) {
+                    final String receiptHandle = batch.get(Integer.parseInt(failure.getId()));
+                    LOG.warn("Could not delete SQS CloudTrail notification <{}>: {} ({})",
+                            receiptHandle, failure.getMessage(), failure.getCode());
+                    // Sender faults, like an expired receipt handle, fail again. The message is delivered again instead.
+                    if (!Boolean.TRUE.equals(failure.getSenderFault())) {
+                        retryable.add(receiptHandle);
+                    }
+                }
+                return retryable;
+            }));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            final List<String> retryable = new ArrayList<>();
+            for (CompletableFuture<List<String>> request : requests) {
+                retryable.addAll(request.join());
+            }
+            return retryable;
+        });
+    }
 
-        LOG.debug("Received [{}] SQS CloudTrail notifications.", result.getMessages().size());
-        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
-        LOG.debug("Finished parsing notifications.");
+    /**
+     * Hides the SQS messages with the given receipt handles from other consumers for another visibility timeout.
+     */
+    public void extendVisibility(List<String> receiptHandles) {
+        changeVisibility(receiptHandles, visibilityTimeoutSeconds);
+    }
+
+    /**
+     * Makes the SQS messages with the given receipt handles visible to all consumers again right away.
+     */
+    public void returnMessages(List<String> receiptHandles) {
+        changeVisibility(receiptHandles, 0);
+    }
+
+    private void changeVisibility(List<String> receiptHandles, int timeoutSeconds) {
+        final List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int offset = 0; offset < receiptHandles.size(); offset += MAX_BATCH_SIZE) {
+            final List<String> batch = receiptHandles.subList(offset, Math.min(receiptHandles.size(), offset + MAX_BATCH_SIZE));
+            LOG.debug("Changing visibility timeout of [{}] SQS CloudTrail notifications to {} seconds.", batch.size(), timeoutSeconds);
 
-        for (Message message : result.getMessages()) {
-            notifications.addAll(parser.parse(message));
+            final List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), batch.get(i))
+                        .withVisibilityTimeout(timeoutSeconds));
+            }
+
+            final ChangeMessageVisibilityBatchRequest request = new ChangeMessageVisibilityBatchRequest()
+                    .withQueueUrl(queueName)
+                    .withEntries(entries);
+            requests.add(call((AsyncHandler<ChangeMessageVisibilityBatchRequest, ChangeMessageVisibilityBatchResult> handler) ->
+                    sqs.changeMessageVisibilityBatchAsync(request, handler)).thenAccept(result -> {
+                // Messages that have been deleted in the meantime end up here, too.
+                for (BatchResultErrorEntry failure : result.getFailed()) {
+                    LOG.debug("Could not change visibility of SQS CloudTrail notification <{}>: {} ({})",
+                            batch.get(Integer.parseInt(failure.getId())), failure.getMessage(), failure.getCode());
+                }
+            }));
         }
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).join();
+    }
 
-        LOG.debug("Returning notifications.");
+    public static AmazonSQSAsync buildClient(Region region, AWSAuthProvider authProvider, ClientConfiguration clientConfiguration) {
+        return AmazonSQSAsyncClientBuilder.standard()
+                .withRegion(region.getName())
+                .withCredentials(authProvider)
+                .withClientConfiguration(clientConfiguration)
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(REQUEST_THREADS, new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cloudtrail-sqs-%d")
+                        .build()))
+                .build();
+    }
 
-        return notifications;
+    /**
+     * Shuts the SQS client down.
+     */
+    public void close() {
+        sqs.shutdown();
     }
 
-    public void deleteNotification(CloudtrailSNSNotification notification) {
-        LOG.debug("Deleting SQS CloudTrail notification <{}>.", notification.getReceiptHandle());
+    /**
+     * Adapts an asynchronous SDK request to a {@link CompletableFuture}. Cancelling the returned future cancels the
+     * request.
+     */
+    private static <REQUEST extends AmazonWebServiceRequest, RESULT> CompletableFuture<RESULT> call(
+            Function<AsyncHandler<REQUEST, RESULT>, Future<RESULT>> request) {
+        final CompletableFuture<RESULT> future = new CompletableFuture<>();
+        final Future<RESULT> sdkFuture = request.apply(new AsyncHandler<REQUEST, RESULT>() {
+            @Override
+            public void onError(Exception exception) {
+                future.completeExceptionally(exception);
+            }
 
-        sqs.deleteMessage(new DeleteMessageRequest()
-                .withQueueUrl(queueName)
-                .withReceiptHandle(notification.getReceiptHandle()));
+            @Override
+            public void onSuccess(REQUEST request, RESULT result) {
+                future.complete(result);
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                sdkFuture.cancel(true);
+            }
+        });
+        return future;
     }
-}
\ No newline at end of file
+}
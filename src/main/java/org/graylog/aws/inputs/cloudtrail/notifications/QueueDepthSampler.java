@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the approximate number of messages on the SQS queue, so it shows how far the input is behind.
+ * SQS only updates these numbers about once a minute, sampling more often would not tell more.
+ */
+public class QueueDepthSampler {
+    private static final Logger LOG = LoggerFactory.getLogger(QueueDepthSampler.class);
+
+    private static final long INTERVAL_SECONDS = 60;
+
+    private final CloudtrailSQSClient sqsClient;
+    private final ScheduledExecutorService executor;
+
+    public QueueDepthSampler(CloudtrailSQSClient sqsClient) {
+        this.sqsClient = sqsClient;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cloudtrail-queue-depth-%d")
+                .build());
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::sample, 0, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            sqsClient.sampleQueueDepth().join();
+        } catch (Exception e) {
+            LOG.debug("Could not sample the number of messages on the CloudTrail SQS queue.", e);
+        }
+    }
+}
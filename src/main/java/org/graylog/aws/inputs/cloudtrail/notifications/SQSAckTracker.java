@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the S3 objects that have been announced by a single SQS message. A message can reference several
+ * S3 objects which all share the receipt handle of the message. The message is only deleted from the queue once
+ * every one of its objects has been processed successfully. If any of them fails, the message is left on the queue
+ * and will be delivered again after its visibility timeout expired. Notifications that have been given back with
+ * {@link #returned(CloudtrailSNSNotification)} make their message visible to consumers again right away instead.
+ * <p>
+ * Deletions are collected and sent to SQS in batches by {@link #flush()}. As soon as a full batch is available, it
+ * is sent right away by the thread that completed it. Until then, messages waiting for deletion still count as in
+ * flight, so their visibility keeps being extended. Messages that SQS could not delete are kept for the next flush.
+ * The {@link DeletionListener} is told about the S3 objects of every message that has been deleted.
+ */
+public class SQSAckTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(SQSAckTracker.class);
+
+    // The maximum number of entries SQS accepts in a single batch request.
+    private static final int BATCH_SIZE = 10;
+
+    private final CloudtrailSQSClient sqsClient;
+    private final DeletionListener deletionListener;
+
+    private final Map<String, InFlightMessage> inFlight = new HashMap<>();
+    // The notifications of the messages waiting for deletion, by receipt handle.
+    private final Map<String, List<CloudtrailSNSNotification>> deletable = new LinkedHashMap<>();
+    private final List<String> returnable = new ArrayList<>();
+
+    public SQSAckTracker(CloudtrailSQSClient sqsClient) {
+        this(sqsClient, notifications -> {});
+    }
+
+    public SQSAckTracker(CloudtrailSQSClient sqsClient, DeletionListener deletionListener) {
+        this.sqsClient = sqsClient;
+        this.deletionListener = deletionListener;
+    }
+
+    public synchronized void track(List<CloudtrailSNSNotification> notifications) {
+        for (CloudtrailSNSNotification notification : notifications) {
+            inFlight.computeIfAbsent(notification.getReceiptHandle(), handle -> new InFlightMessage()).notifications.add(notification);
+        }
+    }
+
+    public void succeeded(CloudtrailSNSNotification notification) {
+        final boolean batchComplete;
+        synchronized (this) {
+            complete(notification, false, false);
+            batchComplete = deletable.size() >= BATCH_SIZE;
+        }
+
+        if (batchComplete) {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.warn("Could not delete processed CloudTrail notifications from SQS. Trying again with the next flush.", e);
+            }
+        }
+    }
+
+    public synchronized void failed(CloudtrailSNSNotification notification) {
+        complete(notification, true, false);
+    }
+
+    /**
+     * Gives back a notification that has not been processed at all, so its SQS message can be received again
+     * immediately once all other objects of the message are done.
+     */
+    public synchronized void returned(CloudtrailSNSNotification notification) {
+        complete(notification, true, true);
+    }
+
+    private void complete(CloudtrailSNSNotification notification, boolean failed, boolean returned) {
+        final String receiptHandle = notification.getReceiptHandle();
+        final InFlightMessage message = inFlight.get(receiptHandle);
+        if (message == null) {
+            LOG.warn("Completed notification for S3 object <{}> does not belong to a tracked SQS message.", notification.getS3ObjectKey());
+            return;
+        }
+
+        message.failed |= failed;
+        message.returned |= returned;
+        if (++message.completed < message.notifications.size()) {
+            return;
+        }
+
+        inFlight.remove(receiptHandle);
+        if (message.returned) {
+            LOG.debug("Returning SQS message <{}> to the queue because not all of its S3 objects have been processed.", receiptHandle);
+            returnable.add(receiptHandle);
+        } else if (message.failed) {
+            LOG.debug("Not deleting SQS message <{}> because not all of its S3 objects could be processed.", receiptHandle);
+        } else {
+            deletable.put(receiptHandle, message.notifications);
+        }
+    }
+
+    /**
+     * Deletes all SQS messages whose S3 objects have been processed completely and makes all returned messages
+     * visible again.
+     */
+    public void flush() {
+        final Map<String, List<CloudtrailSNSNotification>> toDelete;
+        final List<String> returnHandles;
+        synchronized (this) {
+            toDelete = new LinkedHashMap<>(deletable);
+            returnHandles = new ArrayList<>(returnable);
+            deletable.clear();
+            returnable.clear();
+        }
+
+        if (!toDelete.isEmpty()) {
+            final Set<String> failed;
+            try {
+                failed = new HashSet<>(sqsClient.deleteMessages(new ArrayList<>(toDelete.keySet())));
+            } catch (RuntimeException e) {
+                requeue(toDelete);
+                throw e;
+            }
+
+            final Map<String, List<CloudtrailSNSNotification>> retry = new LinkedHashMap<>();
+            final List<CloudtrailSNSNotification> deleted = new ArrayList<>();
+            toDelete.forEach((receiptHandle, notifications) -> {
+                if (failed.contains(receiptHandle)) {
+                    retry.put(receiptHandle, notifications);
+                } else {
+                    deleted.addAll(notifications);
+                }
+            });
+            requeue(retry);
+            if (!deleted.isEmpty()) {
+                deletionListener.deleted(deleted);
+            }
+        }
+        if (!returnHandles.isEmpty()) {
+            sqsClient.returnMessages(returnHandles);
+        }
+    }
+
+    private synchronized void requeue(Map<String, List<CloudtrailSNSNotification>> messages) {
+        messages.forEach(deletable::putIfAbsent);
+    }
+
+    /**
+     * @return the receipt handles of all SQS messages that are still being processed or waiting to be deleted
+     */
+    public synchronized List<String> inFlightReceiptHandles() {
+        final List<String> receiptHandles = new ArrayList<>(inFlight.size() + deletable.size());
+        receiptHandles.addAll(inFlight.keySet());
+        receiptHandles.addAll(deletable.keySet());
+        return receiptHandles;
+    }
+
+    /**
+     * Gets notified about the S3 objects of SQS messages that have been deleted.
+     */
+    @FunctionalInterface
+    public interface DeletionListener {
+        void deleted(List<CloudtrailSNSNotification> notifications);
+    }
+
+    private static class InFlightMessage {
+        private final List<CloudtrailSNSNotification> notifications = new ArrayList<>();
+        private int completed = 0;
+        private boolean failed = false;
+        private boolean returned = false;
+    }
+}
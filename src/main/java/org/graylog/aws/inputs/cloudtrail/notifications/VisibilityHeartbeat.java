@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically extends the visibility timeout of all SQS messages that are still being processed, so that SQS does
+ * not deliver them again while a large CloudTrail log file is being ingested. Messages drop out of the heartbeat as
+ * soon as the {@link SQSAckTracker} no longer considers them in flight, because they were either deleted or abandoned.
+ * <p>
+ * Every beat also flushes the tracker first, so processed messages are deleted even while the subscriber is waiting
+ * for a receive or for room in the pipeline.
+ */
+public class VisibilityHeartbeat {
+    private static final Logger LOG = LoggerFactory.getLogger(VisibilityHeartbeat.class);
+
+    private final SQSAckTracker ackTracker;
+    private final CloudtrailSQSClient sqsClient;
+    private final ScheduledExecutorService executor;
+
+    public VisibilityHeartbeat(SQSAckTracker ackTracker, CloudtrailSQSClient sqsClient) {
+        this.ackTracker = ackTracker;
+        this.sqsClient = sqsClient;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cloudtrail-visibility-heartbeat-%d")
+                .build());
+    }
+
+    public void start() {
+        // Beat twice per visibility timeout, so a single failed extension does not cause a redelivery.
+        final long intervalMillis = Math.max(1000L, TimeUnit.SECONDS.toMillis(sqsClient.getVisibilityTimeoutSeconds()) / 2);
+        executor.scheduleWithFixedDelay(this::beat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void beat() {
+        try {
+            ackTracker.flush();
+        } catch (Exception e) {
+            LOG.warn("Could not delete processed CloudTrail notifications from SQS. Trying again with the next flush.", e);
+        }
+        try {
+            final List<String> receiptHandles = ackTracker.inFlightReceiptHandles();
+            if (!receiptHandles.isEmpty()) {
+                sqsClient.extendVisibility(receiptHandles);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not extend visibility of in-flight CloudTrail notifications. They might be delivered again.", e);
+        }
+    }
+}
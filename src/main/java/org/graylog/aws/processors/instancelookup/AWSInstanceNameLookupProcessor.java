@@ -86,11 +86,13 @@ public class AWSInstanceNameLookupProcessor implements MessageProcessor {
 
                     if (!config.lookupsEnabled()) {
                         LOG.debug("AWS instance name lookups are disabled.");
+                        table.releaseClients();
                         return;
                     }
 
                     if (config.lookupsEnabled() && config.getLookupRegions().isEmpty()) {
                         LOG.warn("AWS region configuration is not complete. No instance lookups will happen.");
+                        table.releaseClients();
                         return;
                     }
 
@@ -104,6 +106,7 @@ public class AWSInstanceNameLookupProcessor implements MessageProcessor {
                     table.reload(
                             config.getLookupRegions(),
                             awsAuthProvider,
+                            config.clientSettings(),
                             proxyUrl
                     );
                 } catch (Exception e) {
@@ -28,14 +28,19 @@ import com.amazonaws.services.ec2.model.NetworkInterface;
 import com.amazonaws.services.ec2.model.NetworkInterfacePrivateIpAddress;
 import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.Tag;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import okhttp3.HttpUrl;
 import org.graylog.aws.auth.AWSAuthProvider;
-import org.graylog.aws.config.Proxy;
+import org.graylog.aws.config.AWSClientRegistry;
+import org.graylog.aws.config.AWSClientSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
 import java.util.List;
 
 @Singleton
@@ -49,35 +54,43 @@ public class InstanceLookupTable {
         UNKNOWN
     }
 
+    private final AWSClientRegistry clientRegistry;
+
     private boolean loaded = false;
 
     private ImmutableMap<String, Instance> ec2Instances;
     private ImmutableMap<String, NetworkInterface> networkInterfaces;
 
+    // The EC2 clients are kept between reloads, so their connections stay open.
+    private List<AWSClientRegistry.Lease<AmazonEC2>> ec2Clients = ImmutableList.of();
+
     // TODO METRICS
 
-    public void reload(List<Regions> regions, AWSAuthProvider awsAuthProvider, HttpUrl proxyUrl) {
+    @Inject
+    public InstanceLookupTable(AWSClientRegistry clientRegistry) {
+        this.clientRegistry = clientRegistry;
+    }
+
+    public synchronized void reload(List<Regions> regions, AWSAuthProvider awsAuthProvider,
+                                    AWSClientSettings clientSettings, @Nullable HttpUrl proxyUrl) {
         LOG.debug("Reloading AWS instance lookup table.");
 
         ImmutableMap.Builder<String, Instance> ec2InstancesBuilder = ImmutableMap.<String, Instance>builder();
         ImmutableMap.Builder<String, NetworkInterface> networkInterfacesBuilder = ImmutableMap.<String, NetworkInterface>builder();
+        List<AWSClientRegistry.Lease<AmazonEC2>> currentEc2Clients = new ArrayList<>();
 
         for (Regions region : regions) {
             try {
-                AmazonEC2 ec2Client;
-
-                if(proxyUrl != null) {
-                    ec2Client = AmazonEC2Client.builder()
-                            .withCredentials(awsAuthProvider)
-                            .withRegion(region)
-                            .withClientConfiguration(Proxy.forAWS(proxyUrl))
-                            .build();
-                } else {
-                    ec2Client = AmazonEC2Client.builder()
-                            .withCredentials(awsAuthProvider)
-                            .withRegion(region)
-                            .build();
-                }
+                AWSClientRegistry.Lease<AmazonEC2> lease = clientRegistry.acquire(AmazonEC2.class, region.getName(),
+                        awsAuthProvider, clientSettings, proxyUrl,
+                        clientConfiguration -> AmazonEC2Client.builder()
+                                .withCredentials(awsAuthProvider)
+                                .withRegion(region)
+                                .withClientConfiguration(clientConfiguration)
+                                .build(),
+                        AmazonEC2::shutdown);
+                currentEc2Clients.add(lease);
+                AmazonEC2 ec2Client = lease.client();
 
                 // Load network interfaces
                 LOG.debug("Requesting AWS network interface descriptions in [{}].", region.getName());
@@ -131,9 +144,21 @@ public class InstanceLookupTable {
         ec2Instances = ec2InstancesBuilder.build();
         networkInterfaces = networkInterfacesBuilder.build();
 
+        // Clients of regions that are still looked up have just been leased again and are not shut down.
+        releaseClients();
+        ec2Clients = currentEc2Clients;
+
         this.loaded = true;
     }
 
+    /**
+     * Releases the EC2 clients of the last reload, e.g. because lookups have been disabled.
+     */
+    public synchronized void releaseClients() {
+        ec2Clients.forEach(AWSClientRegistry.Lease::close);
+        ec2Clients = ImmutableList.of();
+    }
+
     public DiscoveredInstance findByIp(String ip) {
         try {
             // Let's see if this is an EC2 instance maybe?
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.s3;
+
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an S3 object as a sequence of byte ranges that are downloaded in parallel. Up to {@code window} parts are
+ * fetched ahead of the reader, and the parts are handed out strictly in order, so the stream can be consumed like a
+ * single download while one slow connection only holds up its own part. All parts are requested with the ETag of
+ * the first one, so a concurrently replaced object fails the stream instead of mixing two versions.
+ * <p>
+ * Every part that is fetched ahead is charged to a {@link PartBudget} before it is requested and released once the
+ * reader has moved past it. Fetching ahead stops while the budget is exhausted. Only the part the reader is waiting
+ * for is requested regardless of the budget, so readers never wait for each other's parts.
+ */
+public class RangedObjectInputStream extends InputStream {
+    private final S3Reader reader;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long objectSize;
+    private final long partSize;
+    private final int window;
+    private final ExecutorService executor;
+    private final PartBudget budget;
+
+    private final Deque<Part> pending = new ArrayDeque<>();
+    private long nextOffset;
+    private byte[] current;
+    private long currentCharged = 0;
+    private int position = 0;
+
+    /**
+     * @param firstPart the first bytes of the object, which the caller already downloaded
+     */
+    public RangedObjectInputStream(S3Reader reader, String bucket, String key, String eTag, byte[] firstPart,
+                                   long objectSize, long partSize, int window, ExecutorService executor) {
+        this(reader, bucket, key, eTag, firstPart, objectSize, partSize, window, executor, PartBudget.UNLIMITED);
+    }
+
+    /**
+     * @param firstPart the first bytes of the object, which the caller already downloaded and accounts for itself
+     * @param budget    the budget the parts fetched by this stream are charged to
+     */
+    public RangedObjectInputStream(S3Reader reader, String bucket, String key, String eTag, byte[] firstPart,
+                                   long objectSize, long partSize, int window, ExecutorService executor,
+                                   PartBudget budget) {
+        this.reader = reader;
+        this.bucket = bucket;
+        this.key = key;
+        this.eTag = eTag;
+        this.objectSize = objectSize;
+        this.partSize = Math.max(1, partSize);
+        this.window = Math.max(1, window);
+        this.executor = executor;
+        this.budget = budget;
+        this.current = firstPart;
+        this.nextOffset = firstPart.length;
+
+        fetchAhead();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        for (Part part : pending) {
+            part.data.cancel(true);
+            budget.release(part.size);
+        }
+        pending.clear();
+        releaseCurrent();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (current != null && position >= current.length) {
+            releaseCurrent();
+            if (pending.isEmpty() && nextOffset < objectSize) {
+                // The budget did not allow fetching ahead, but the reader needs this part now.
+                fetchNext(true);
+            }
+
+            final Part next = pending.poll();
+            if (next == null) {
+                break;
+            }
+
+            // The part is charged from now on, even if it cannot be downloaded.
+            currentCharged = next.size;
+            try {
+                current = next.data.get();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for part of S3 object <" + key + ">.");
+            } catch (ExecutionException e) {
+                throw new IOException("Could not download part of S3 object <" + key + ">.", e.getCause());
+            }
+
+            fetchAhead();
+        }
+        return current != null;
+    }
+
+    private void releaseCurrent() {
+        budget.release(currentCharged);
+        currentCharged = 0;
+        current = null;
+    }
+
+    private void fetchAhead() {
+        while (pending.size() < window && nextOffset < objectSize && fetchNext(false)) {
+            // Keep fetching until the window is full or the budget is exhausted.
+        }
+    }
+
+    private boolean fetchNext(boolean force) {
+        final long start = nextOffset;
+        final long end = Math.min(objectSize, start + partSize) - 1;
+        final long size = end - start + 1;
+        if (force) {
+            budget.forceAcquire(size);
+        } else if (!budget.tryAcquire(size)) {
+            return false;
+        }
+
+        pending.add(new Part(executor.submit(() -> fetch(start, end)), size));
+        nextOffset = end + 1;
+        return true;
+    }
+
+    private byte[] fetch(long start, long end) throws IOException {
+        try (S3Object part = reader.getObjectRange(bucket, key, eTag, start, end)) {
+            return IOUtils.toByteArray(part.getObjectContent(), end - start + 1);
+        }
+    }
+
+    private static class Part {
+        private final Future<byte[]> data;
+        private final long size;
+
+        private Part(Future<byte[]> data, long size) {
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Accounts for the memory of parts that have been fetched ahead but not been read yet.
+     */
+    public interface PartBudget {
+        PartBudget UNLIMITED = new PartBudget() {
+            @Override
+            public boolean tryAcquire(long bytes) {
+                return true;
+            }
+
+            @Override
+            public void forceAcquire(long bytes) {
+            }
+
+            @Override
+            public void release(long bytes) {
+            }
+        };
+
+        /**
+         * Charges the given number of bytes if the budget allows it.
+         *
+         * @return {@code false} if the bytes have not been charged
+         */
+        boolean tryAcquire(long bytes);
+
+        /**
+         * Charges the given number of bytes even if that exceeds the budget.
+         */
+        void forceAcquire(long bytes);
+
+        void release(long bytes);
+    }
+}
@@ -16,41 +16,121 @@
  */
 package org.graylog.aws.s3;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.regions.Region;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.S3Object;
-import okhttp3.HttpUrl;
-import org.apache.commons.io.IOUtils;
 import org.graylog.aws.auth.AWSAuthProvider;
-import org.graylog.aws.config.Proxy;
-import org.graylog2.plugin.Tools;
+import org.graylog.aws.config.AWSClientRegistry;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
-public class S3Reader {
+public class S3Reader implements AutoCloseable {
 
+    private final AWSClientRegistry.Lease<AmazonS3> lease;
     private final AmazonS3 client;
 
-    public S3Reader(Region region, HttpUrl proxyUrl, AWSAuthProvider authProvider) {
-        AmazonS3ClientBuilder clientBuilder = AmazonS3ClientBuilder.standard().withRegion(region.getName()).withCredentials(authProvider);
-
-        if(proxyUrl != null) {
-            clientBuilder.withClientConfiguration(Proxy.forAWS(proxyUrl));
-        }
+    /**
+     * @param lease the S3 client to use, closed together with the reader
+     */
+    public S3Reader(AWSClientRegistry.Lease<AmazonS3> lease) {
+        this.lease = lease;
+        this.client = lease.client();
+    }
 
-        this.client = clientBuilder.build();
+    public static AmazonS3 buildClient(Region region, AWSAuthProvider authProvider, ClientConfiguration clientConfiguration) {
+        return AmazonS3ClientBuilder.standard()
+                .withRegion(region.getName())
+                .withCredentials(authProvider)
+                .withClientConfiguration(clientConfiguration)
+                .build();
     }
 
-    public String readCompressed(String bucket, String key) throws IOException {
+    /**
+     * Starts downloading an S3 object. The caller has to close the returned object.
+     */
+    public S3Object getObject(String bucket, String key) {
         S3Object o = this.client.getObject(bucket, key);
 
         if (o == null) {
             throw new RuntimeException("Could not get S3 object from bucket [" + bucket + "].");
         }
 
-        byte[] bytes = IOUtils.toByteArray(o.getObjectContent());
-        return Tools.decompressGzip(bytes);
+        return o;
+    }
+
+    /**
+     * Starts downloading the bytes {@code start} to {@code end} (both inclusive) of an S3 object. If an ETag is given,
+     * the request fails if the object does not match it anymore. The caller has to close the returned object.
+     */
+    public S3Object getObjectRange(String bucket, String key, @Nullable String eTag, long start, long end) {
+        final GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, end);
+        if (eTag != null) {
+            request.withMatchingETagConstraint(eTag);
+        }
+
+        final S3Object o = this.client.getObject(request);
+
+        if (o == null) {
+            // The SDK returns null instead of an object if the ETag constraint has not been met.
+            throw new RuntimeException("Could not get S3 object <" + key + "> from bucket [" + bucket + "]. It may have been modified while it was being downloaded.");
+        }
+
+        return o;
+    }
+
+    /**
+     * Lists one page of the objects in a bucket.
+     */
+    public ListObjectsV2Result listObjects(ListObjectsV2Request request) {
+        return this.client.listObjectsV2(request);
+    }
+
+    /**
+     * Lists the "directories" right below the given prefix, i.e. all distinct key prefixes up to the next {@code /}.
+     */
+    public List<String> listCommonPrefixes(String bucket, String prefix) {
+        final ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withPrefix(prefix)
+                .withDelimiter("/");
+
+        final List<String> prefixes = new ArrayList<>();
+        ListObjectsV2Result result;
+        do {
+            result = listObjects(request);
+            prefixes.addAll(result.getCommonPrefixes());
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+
+        return prefixes;
+    }
+
+    @Override
+    public void close() {
+        lease.close();
+    }
+
+    /**
+     * Wraps a gzip compressed stream so that it is inflated while being read. Closes the given stream if it is not
+     * gzip compressed.
+     */
+    public static InputStream decompress(InputStream compressed) throws IOException {
+        try {
+            return new GZIPInputStream(compressed, 64 * 1024);
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
     }
 
 }
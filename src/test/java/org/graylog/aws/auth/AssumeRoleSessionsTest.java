@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.auth;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AssumeRoleSessionsTest {
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private AWSSecurityTokenService stsClient;
+
+    @Test
+    public void sharesSessionBetweenProviders() {
+        when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenReturn(assumeRoleResult());
+        final AssumeRoleSessions sessions = new AssumeRoleSessions(1, TimeUnit.HOURS);
+        final AtomicInteger started = new AtomicInteger();
+
+        final AWSCredentialsProvider first = sessions.provider("role", () -> startSession(started));
+        final AWSCredentialsProvider second = sessions.provider("role", () -> startSession(started));
+
+        final AWSCredentials credentials = first.getCredentials();
+        assertThat(credentials.getAWSAccessKeyId()).isEqualTo("ASIAEXAMPLE");
+        assertThat(credentials.getAWSSecretKey()).isEqualTo("session-secret");
+        assertThat(second.getCredentials().getAWSAccessKeyId()).isEqualTo("ASIAEXAMPLE");
+        assertThat(started).hasValue(1);
+    }
+
+    @Test
+    public void startsSessionPerKey() {
+        when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenReturn(assumeRoleResult());
+        final AssumeRoleSessions sessions = new AssumeRoleSessions(1, TimeUnit.HOURS);
+        final AtomicInteger started = new AtomicInteger();
+
+        sessions.provider("role-a", () -> startSession(started)).getCredentials();
+        sessions.provider("role-b", () -> startSession(started)).getCredentials();
+
+        assertThat(started).hasValue(2);
+    }
+
+    @Test
+    public void failsWhenSessionCannotBeStarted() {
+        final AssumeRoleSessions sessions = new AssumeRoleSessions(1, TimeUnit.HOURS);
+
+        final AWSCredentialsProvider provider = sessions.provider("role", () -> {
+            throw new IllegalStateException("STS unavailable");
+        });
+
+        assertThatThrownBy(provider::getCredentials)
+                .isInstanceOf(SdkClientException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void closingSessionShutsDownStsClient() {
+        final AssumeRoleSessions.Session session = new AssumeRoleSessions.Session(
+                new STSAssumeRoleSessionCredentialsProvider.Builder("arn", "session"), stsClient);
+
+        session.close();
+
+        verify(stsClient).shutdown();
+    }
+
+    private AssumeRoleSessions.Session startSession(AtomicInteger started) {
+        started.incrementAndGet();
+        return new AssumeRoleSessions.Session(new STSAssumeRoleSessionCredentialsProvider.Builder("arn", "session"), stsClient);
+    }
+
+    private static AssumeRoleResult assumeRoleResult() {
+        return new AssumeRoleResult().withCredentials(new Credentials()
+                .withAccessKeyId("ASIAEXAMPLE")
+                .withSecretAccessKey("session-secret")
+                .withSessionToken("token")
+                .withExpiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))));
+    }
+}
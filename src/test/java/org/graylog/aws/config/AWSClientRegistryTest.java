@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.config;
+
+import org.graylog.aws.auth.AWSAuthProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class AWSClientRegistryTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private AWSAuthProvider authProvider;
+
+    private final AWSClientRegistry registry = new AWSClientRegistry();
+    private final AtomicInteger built = new AtomicInteger();
+    private final List<Object> shutDown = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        when(authProvider.identity()).thenReturn("static:key");
+    }
+
+    @Test
+    public void sharesClientsUntilTheLastLeaseIsClosed() {
+        final AWSClientRegistry.Lease<Object> first = acquire("eu-west-1", AWSClientSettings.createDefault());
+        final AWSClientRegistry.Lease<Object> second = acquire("eu-west-1", AWSClientSettings.createDefault());
+
+        assertThat(second.client()).isSameAs(first.client());
+        assertThat(built).hasValue(1);
+
+        first.close();
+        first.close();
+        assertThat(shutDown).isEmpty();
+
+        second.close();
+        assertThat(shutDown).containsExactly(first.client());
+        assertThat(registry.size()).isZero();
+
+        assertThat(acquire("eu-west-1", AWSClientSettings.createDefault()).client()).isNotSameAs(first.client());
+    }
+
+    @Test
+    public void buildsSeparateClientsForDifferentRegionsAndSettings() {
+        final Object client = acquire("eu-west-1", AWSClientSettings.createDefault()).client();
+
+        assertThat(acquire("us-east-1", AWSClientSettings.createDefault()).client()).isNotSameAs(client);
+        assertThat(acquire("eu-west-1", AWSClientSettings.create(100, null, null, null, null, null)).client()).isNotSameAs(client);
+        assertThat(registry.size()).isEqualTo(3);
+    }
+
+    private AWSClientRegistry.Lease<Object> acquire(String region, AWSClientSettings settings) {
+        return registry.acquire(Object.class, region, authProvider, settings, null,
+                clientConfiguration -> {
+                    built.incrementAndGet();
+                    return new Object();
+                },
+                shutDown::add);
+    }
+}
@@ -131,6 +131,29 @@ public class AWSConfigurationResourceTest extends RestResourceBaseTest {
         assertThat(writtenConfig.secretKey("verySecret123456")).isEqualTo("newSecretKey");
     }
 
+    @Test
+    public void updatesClientSettings() {
+        mockPreviousConfig(sampleConfigWithoutSecretKey());
+        final AWSPluginConfigurationUpdate update = AWSPluginConfigurationUpdate.create(
+                false,
+                "noLookupRegions",
+                "",
+                null,
+                false,
+                200,
+                60,
+                30,
+                null,
+                true,
+                5
+        );
+
+        this.awsConfigurationResource.updateConfig(update);
+
+        final AWSPluginConfiguration writtenConfig = captureWrittenConfig();
+        assertThat(writtenConfig.clientSettings()).isEqualTo(AWSClientSettings.create(200, 60, 30, null, true, 5));
+    }
+
     private void mockPreviousConfig(AWSPluginConfiguration previousConfig) {
         when(clusterConfigService.getOrDefault(eq(AWSPluginConfiguration.class), any(AWSPluginConfiguration.class)))
                 .thenReturn(previousConfig);
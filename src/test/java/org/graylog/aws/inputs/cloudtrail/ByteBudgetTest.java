@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteBudgetTest {
+    @Test
+    public void blocksUntilEnoughBytesHaveBeenReleased() throws Exception {
+        final ByteBudget budget = new ByteBudget(100);
+        budget.acquire(80);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread(() -> {
+            try {
+                budget.acquire(40);
+                acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiter.start();
+
+        assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        budget.release(80);
+
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(budget.inUse()).isEqualTo(40);
+    }
+
+    @Test
+    public void grantsOversizedRequestIfNothingElseIsInFlight() throws Exception {
+        final ByteBudget budget = new ByteBudget(100);
+
+        budget.acquire(500);
+
+        assertThat(budget.inUse()).isEqualTo(500);
+    }
+}
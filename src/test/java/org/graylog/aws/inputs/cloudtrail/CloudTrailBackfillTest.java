@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CloudTrailBackfillTest {
+    private static final String BUCKET = "cloudtrailbucket";
+    private static final String PROGRESS_KEY = "progress";
+    private static final String DAY_1 = "trail/AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/";
+    private static final String DAY_2 = "trail/AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/02/";
+    private static final String ORGANIZATION_DAY_1 = "trail/AWSLogs/o-abcdefghij/210987654321/CloudTrail/us-east-1/2020/01/01/";
+    private static final String ORGANIZATION_DAY_2 = "trail/AWSLogs/o-abcdefghij/210987654321/CloudTrail/us-east-1/2020/01/02/";
+    private static final String EARLIER_DAY = "trail/AWSLogs/123456789012/CloudTrail/eu-west-1/2019/12/31/";
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private S3Reader s3Reader;
+    @Mock
+    private LogFileEmitter logFileEmitter;
+    @Mock
+    private ClusterConfigService clusterConfigService;
+    @Mock
+    private InputFailureRecorder inputFailureRecorder;
+    @Mock
+    private ThrottleableTransport2 transport;
+
+    @Test
+    public void ingestsAllDaysOfAllAccountsAndResumesAfterWatermarks() throws Exception {
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/123456789012/", "trail/AWSLogs/o-abcdefghij/"));
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/o-abcdefghij/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/o-abcdefghij/210987654321/"));
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/123456789012/CloudTrail/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/123456789012/CloudTrail/eu-west-1/"));
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/o-abcdefghij/210987654321/CloudTrail/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/o-abcdefghij/210987654321/CloudTrail/us-east-1/"));
+
+        when(clusterConfigService.get(PROGRESS_KEY, BackfillProgress.class))
+                .thenReturn(BackfillProgress.create(ImmutableMap.of(
+                        DAY_1, DAY_1 + "a.json.gz",
+                        EARLIER_DAY, EARLIER_DAY + "a.json.gz")));
+
+        final Map<String, ListObjectsV2Result> listings = ImmutableMap.of(
+                DAY_1 + "|" + DAY_1 + "a.json.gz", listing(DAY_1 + "b.json.gz"),
+                DAY_2 + "|null", listing(DAY_2 + "a.json.gz"),
+                ORGANIZATION_DAY_1 + "|null", listing(),
+                ORGANIZATION_DAY_2 + "|null", listing(ORGANIZATION_DAY_2 + "a.json.gz"));
+        when(s3Reader.listObjects(any())).thenAnswer(invocation -> {
+            final ListObjectsV2Request request = invocation.getArgument(0);
+            return listings.get(request.getPrefix() + "|" + request.getStartAfter());
+        });
+        when(s3Reader.getObject(eq(BUCKET), anyString())).thenAnswer(invocation -> {
+            final S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(new byte[0]));
+            return object;
+        });
+
+        final CloudTrailKeyFilter filter = new CloudTrailKeyFilter(ImmutableSet.of(), ImmutableSet.of(),
+                LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 2));
+        new CloudTrailBackfill(s3Reader, BUCKET, "trail", filter, 2,
+                logFileEmitter, clusterConfigService, PROGRESS_KEY, inputFailureRecorder, transport).run();
+
+        verify(logFileEmitter, times(3)).emit(any());
+        verify(s3Reader).getObject(BUCKET, DAY_1 + "b.json.gz");
+        verify(s3Reader).getObject(BUCKET, DAY_2 + "a.json.gz");
+        verify(s3Reader).getObject(BUCKET, ORGANIZATION_DAY_2 + "a.json.gz");
+        // The days are over, so only their completion is kept. The watermark of the day outside the backfill is dropped.
+        verify(clusterConfigService, atLeastOnce()).write(PROGRESS_KEY, BackfillProgress.create(ImmutableMap.of(),
+                ImmutableSet.of(DAY_1, DAY_2, ORGANIZATION_DAY_1, ORGANIZATION_DAY_2)));
+    }
+
+    @Test
+    public void doesNotListCompletedDays() throws Exception {
+        mockSingleAccount();
+        when(clusterConfigService.get(PROGRESS_KEY, BackfillProgress.class))
+                .thenReturn(BackfillProgress.create(ImmutableMap.of(), ImmutableSet.of(DAY_1)));
+
+        backfill(LocalDate.of(2020, 1, 1)).run();
+
+        verify(s3Reader, never()).listObjects(any());
+        verify(logFileEmitter, never()).emit(any());
+    }
+
+    @Test
+    public void retriesLogFilesThatCannotBeIngested() throws Exception {
+        mockSingleAccount();
+        when(s3Reader.listObjects(any()))
+                .thenReturn(listing(DAY_1 + "a.json.gz", DAY_1 + "b.json.gz", DAY_1 + "c.json.gz"));
+        when(s3Reader.getObject(eq(BUCKET), anyString())).thenAnswer(invocation -> emptyObject());
+        when(s3Reader.getObject(BUCKET, DAY_1 + "b.json.gz"))
+                .thenThrow(new AmazonS3Exception("Service Unavailable"))
+                .thenAnswer(invocation -> emptyObject());
+
+        backfill(LocalDate.of(2020, 1, 1)).run();
+
+        verify(logFileEmitter, times(3)).emit(any());
+        verify(s3Reader, times(2)).getObject(BUCKET, DAY_1 + "b.json.gz");
+        verify(inputFailureRecorder, never()).setFailing(any(), anyString());
+    }
+
+    @Test
+    public void keepsWatermarkInFrontOfLogFilesThatCannotBeIngested() throws Exception {
+        mockSingleAccount();
+        when(s3Reader.listObjects(any()))
+                .thenReturn(listing(DAY_1 + "a.json.gz", DAY_1 + "b.json.gz", DAY_1 + "c.json.gz"));
+        when(s3Reader.getObject(eq(BUCKET), anyString())).thenAnswer(invocation -> emptyObject());
+        when(s3Reader.getObject(BUCKET, DAY_1 + "b.json.gz")).thenThrow(new AmazonS3Exception("Access Denied"));
+
+        backfill(LocalDate.of(2020, 1, 1)).run();
+
+        verify(logFileEmitter, times(1)).emit(any());
+        verify(s3Reader, times(5)).getObject(BUCKET, DAY_1 + "b.json.gz");
+        verify(s3Reader, never()).getObject(BUCKET, DAY_1 + "c.json.gz");
+        verify(clusterConfigService, atLeastOnce()).write(PROGRESS_KEY,
+                BackfillProgress.create(ImmutableMap.of(DAY_1, DAY_1 + "a.json.gz")));
+        verify(clusterConfigService, never()).write(eq(PROGRESS_KEY),
+                eq(BackfillProgress.create(ImmutableMap.of(DAY_1, DAY_1 + "b.json.gz"))));
+        verify(inputFailureRecorder).setFailing(eq(CloudTrailBackfill.class), contains("on [1] days"));
+    }
+
+    private void mockSingleAccount() {
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/123456789012/"));
+        when(s3Reader.listCommonPrefixes(BUCKET, "trail/AWSLogs/123456789012/CloudTrail/"))
+                .thenReturn(ImmutableList.of("trail/AWSLogs/123456789012/CloudTrail/eu-west-1/"));
+    }
+
+    private CloudTrailBackfill backfill(LocalDate day) {
+        final CloudTrailKeyFilter filter = new CloudTrailKeyFilter(ImmutableSet.of(), ImmutableSet.of(), day, day);
+        return new CloudTrailBackfill(s3Reader, BUCKET, "trail", filter, 1,
+                logFileEmitter, clusterConfigService, PROGRESS_KEY, inputFailureRecorder, transport, 1);
+    }
+
+    private static S3Object emptyObject() {
+        final S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(new byte[0]));
+        return object;
+    }
+
+    private static ListObjectsV2Result listing(String... keys) {
+        final ListObjectsV2Result result = new ListObjectsV2Result();
+        for (String key : keys) {
+            final S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(BUCKET);
+            summary.setKey(key);
+            result.getObjectSummaries().add(summary);
+        }
+        return result;
+    }
+}
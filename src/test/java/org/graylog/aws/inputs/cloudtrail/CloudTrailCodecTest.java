@@ -16,10 +16,13 @@
  */
 package org.graylog.aws.inputs.cloudtrail;
 
+import com.google.common.collect.ImmutableMap;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import org.junit.Test;
 
@@ -102,4 +105,83 @@ public class CloudTrailCodecTest {
         Message message = codec.decode(rawMessage);
         assertNull(message.getField("additional_event_data"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRecordFields() {
+        final CloudTrailCodec codec = new CloudTrailCodec(new Configuration(ImmutableMap.<String, Object>of(CloudTrailCodec.Config.CK_OVERRIDE_SOURCE, "my-trail")),
+                new ObjectMapperProvider().get());
+
+        final RawMessage rawMessage = new RawMessage(("{\n" +
+                "\"eventVersion\": \"1.05\",\n" +
+                "\"userIdentity\": {\n" +
+                "\"type\": \"IAMUser\",\n" +
+                "\"principalId\": \"AIDAJHGSCCCCBBBBAAAA\",\n" +
+                "\"arn\": \"arn:aws:iam::1111122221111:user/some.user\",\n" +
+                "\"accountId\": \"1111122221111\",\n" +
+                "\"userName\": \"some.user\"" +
+                "},\n" +
+                "\"eventTime\": \"2020-08-19T14:12:28Z\",\n" +
+                "\"eventSource\": \"signin.amazonaws.com\",\n" +
+                "\"eventName\": \"ConsoleLogin\",\n" +
+                "\"awsRegion\": \"us-east-1\",\n" +
+                "\"sourceIPAddress\": \"127.0.0.1\",\n" +
+                "\"responseElements\": {\n" +
+                "\"ConsoleLogin\": \"Success\"\n" +
+                "},\n" +
+                "\"eventID\": \"df38ed44-32d4-43f6-898f-5a55d260a2bb\",\n" +
+                "\"eventType\": \"AwsConsoleSignIn\",\n" +
+                "\"recipientAccountId\": \"1111122221111\"\n" +
+        "}").getBytes());
+        Message message = codec.decode(rawMessage);
+
+        assertEquals("my-trail", message.getSource());
+        assertEquals(new DateTime(2020, 8, 19, 14, 12, 28, DateTimeZone.UTC), message.getTimestamp());
+        assertEquals("signin.amazonaws.com", message.getField("event_source"));
+        assertEquals("df38ed44-32d4-43f6-898f-5a55d260a2bb", message.getField("event_id"));
+        assertEquals("some.user", message.getField("user_name"));
+        assertEquals("1111122221111", message.getField("user_account_id"));
+        assertEquals("Success", message.getField("consoleLogin"));
+        assertNull(message.getField("errorMessage"));
+        assertNull(message.getField("user_session_creation_date"));
+    }
+
+    @Test
+    public void testJsonFieldFormat() {
+        final CloudTrailCodec codec = new CloudTrailCodec(new Configuration(ImmutableMap.<String, Object>of(CloudTrailCodec.Config.CK_JSON_FIELD_FORMAT, "json")),
+                new ObjectMapperProvider().get());
+
+        final RawMessage rawMessage = new RawMessage(("{\n" +
+                "\"eventTime\": \"2020-08-19T14:12:28Z\",\n" +
+                "\"eventSource\": \"s3.amazonaws.com\",\n" +
+                "\"eventName\": \"GetObject\",\n" +
+                "\"requestParameters\": {\n" +
+                "\"bucketName\": \"logs\",\n" +
+                "\"key\": \"some/object\"\n" +
+                "},\n" +
+                "\"additionalEventData\": {\n" +
+                "\"bytesTransferredOut\": 1024\n" +
+                "}\n" +
+        "}").getBytes());
+        Message message = codec.decode(rawMessage);
+
+        assertEquals("{\"bucketName\":\"logs\",\"key\":\"some/object\"}", message.getField("full_message"));
+        assertEquals("{\"bytesTransferredOut\":1024}", message.getField("additional_event_data"));
+    }
+
+    @Test
+    public void testLegacyFieldFormat() {
+        final CloudTrailCodec codec = new CloudTrailCodec(Configuration.EMPTY_CONFIGURATION,
+                new ObjectMapperProvider().get());
+
+        final RawMessage rawMessage = new RawMessage(("{\n" +
+                "\"eventTime\": \"2020-08-19T14:12:28Z\",\n" +
+                "\"requestParameters\": {\n" +
+                "\"bucketName\": \"logs\",\n" +
+                "\"key\": \"some/object\"\n" +
+                "}\n" +
+        "}").getBytes());
+        Message message = codec.decode(rawMessage);
+
+        assertEquals("[bucketName=logs, key=some/object]", message.getField("full_message"));
+    }
+}
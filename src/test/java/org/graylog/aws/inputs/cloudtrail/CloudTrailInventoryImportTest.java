@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CloudTrailInventoryImportTest {
+    private static final String BUCKET = "cloudtrailbucket";
+    private static final String INVENTORY_BUCKET = "inventorybucket";
+    private static final String MANIFEST_KEY = "inventory/cloudtrailbucket/all/2020-02-01T00-00Z/manifest.json";
+    private static final String MANIFEST = "s3://" + INVENTORY_BUCKET + "/" + MANIFEST_KEY;
+    private static final String PROGRESS_KEY = "progress";
+    private static final String DAY = "AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/";
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private S3Reader s3Reader;
+    @Mock
+    private LogFileEmitter logFileEmitter;
+    @Mock
+    private ClusterConfigService clusterConfigService;
+    @Mock
+    private InputFailureRecorder inputFailureRecorder;
+    @Mock
+    private ThrottleableTransport2 transport;
+
+    @Test
+    public void ingestsMatchingLogFilesAndResumesAfterProgress() throws Exception {
+        when(s3Reader.getObject(INVENTORY_BUCKET, MANIFEST_KEY)).thenReturn(object(("{" +
+                "\"sourceBucket\":\"cloudtrailbucket\"," +
+                "\"destinationBucket\":\"arn:aws:s3:::inventorybucket\"," +
+                "\"fileFormat\":\"CSV\"," +
+                "\"fileSchema\":\"Bucket, Key, Size, LastModifiedDate\"," +
+                "\"files\":[{\"key\":\"inventory/data/1.csv.gz\"},{\"key\":\"inventory/data/2.csv.gz\"}]" +
+                "}").getBytes(StandardCharsets.UTF_8)));
+        when(s3Reader.getObject(INVENTORY_BUCKET, "inventory/data/1.csv.gz")).thenReturn(object(gzip(
+                row(DAY + "a.json.gz"),
+                row(DAY + "b.json.gz"),
+                row("AWSLogs/123456789012/CloudTrail/us-east-1/2020/01/01/c.json.gz"),
+                row("AWSLogs/123456789012/CloudTrail/eu-west-1/2019/12/31/d.json.gz"))));
+        when(s3Reader.getObject(INVENTORY_BUCKET, "inventory/data/2.csv.gz")).thenReturn(object(gzip(
+                row("AWSLogs/123456789012/CloudTrail-Digest/eu-west-1/2020/01/01/digest.json.gz"),
+                row(DAY + "e%2Bf.json.gz"))));
+        when(s3Reader.getObject(eq(BUCKET), anyString())).thenAnswer(invocation -> object(new byte[0]));
+
+        when(clusterConfigService.get(PROGRESS_KEY, InventoryProgress.class))
+                .thenReturn(InventoryProgress.create(MANIFEST, 0, 0));
+
+        final CloudTrailKeyFilter filter = new CloudTrailKeyFilter(ImmutableSet.of(), ImmutableSet.of("eu-west-1"),
+                LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31));
+        new CloudTrailInventoryImport(s3Reader, new ObjectMapper(), INVENTORY_BUCKET, MANIFEST_KEY, filter, 2,
+                logFileEmitter, clusterConfigService, PROGRESS_KEY, inputFailureRecorder, transport).run();
+
+        verify(logFileEmitter, times(2)).emit(any());
+        verify(s3Reader, never()).getObject(BUCKET, DAY + "a.json.gz");
+        verify(s3Reader).getObject(BUCKET, DAY + "b.json.gz");
+        verify(s3Reader).getObject(BUCKET, DAY + "e+f.json.gz");
+        verify(clusterConfigService).write(PROGRESS_KEY, InventoryProgress.create(MANIFEST, 1, -1));
+        verify(clusterConfigService).write(PROGRESS_KEY, InventoryProgress.create(MANIFEST, 2, -1));
+    }
+
+    @Test
+    public void rejectsUnsupportedFormats() throws Exception {
+        when(s3Reader.getObject(INVENTORY_BUCKET, MANIFEST_KEY)).thenReturn(object(
+                "{\"fileFormat\":\"Parquet\",\"fileSchema\":\"message schema {}\",\"files\":[]}".getBytes(StandardCharsets.UTF_8)));
+
+        final CloudTrailKeyFilter filter = new CloudTrailKeyFilter(ImmutableSet.of(), ImmutableSet.of(),
+                LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31));
+        new CloudTrailInventoryImport(s3Reader, new ObjectMapper(), INVENTORY_BUCKET, MANIFEST_KEY, filter, 2,
+                logFileEmitter, clusterConfigService, PROGRESS_KEY, inputFailureRecorder, transport).run();
+
+        verify(inputFailureRecorder).setFailing(eq(CloudTrailInventoryImport.class), anyString(), any(IllegalStateException.class));
+        verify(logFileEmitter, never()).emit(any());
+    }
+
+    @Test
+    public void parseRowUnquotesValues() {
+        assertThat(CloudTrailInventoryImport.parseRow("\"bucket\",\"a \"\"b\"\", c\",\"\",\"42\""))
+                .containsExactly("bucket", "a \"b\", c", "", "42");
+    }
+
+    private static String row(String key) {
+        return "\"" + BUCKET + "\",\"" + key + "\",\"1024\",\"2020-01-01T00:05:00.000Z\"\n";
+    }
+
+    private static byte[] gzip(String... rows) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            for (String row : rows) {
+                out.write(row.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static S3Object object(byte[] content) {
+        final S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(content));
+        return object;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CloudTrailKeyFilterTest {
+    private final CloudTrailKeyFilter filter = new CloudTrailKeyFilter(
+            ImmutableSet.of("123456789012", "210987654321"),
+            ImmutableSet.of("eu-west-1"),
+            LocalDate.of(2020, 1, 1),
+            LocalDate.of(2020, 1, 31));
+
+    @Test
+    public void matchesLogFilesOfAccountsRegionsAndDays() {
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/a.json.gz")).isTrue();
+        assertThat(filter.matches("trail/AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/31/a.json.gz")).isTrue();
+        assertThat(filter.matches("AWSLogs/o-abcdefghij/210987654321/CloudTrail/eu-west-1/2020/01/15/a.json.gz")).isTrue();
+
+        assertThat(filter.matches("AWSLogs/111111111111/CloudTrail/eu-west-1/2020/01/01/a.json.gz")).isFalse();
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail/us-east-1/2020/01/01/a.json.gz")).isFalse();
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail/eu-west-1/2019/12/31/a.json.gz")).isFalse();
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail/eu-west-1/2020/02/01/a.json.gz")).isFalse();
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail-Digest/eu-west-1/2020/01/01/a.json.gz")).isFalse();
+        assertThat(filter.matches("AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/")).isFalse();
+    }
+
+    @Test
+    public void emptyListsMatchEverything() {
+        final CloudTrailKeyFilter unrestricted = new CloudTrailKeyFilter(
+                CloudTrailKeyFilter.parseList(""), CloudTrailKeyFilter.parseList(null),
+                LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 1));
+
+        assertThat(unrestricted.matchesAccount("111111111111")).isTrue();
+        assertThat(unrestricted.matchesRegion("ap-south-1")).isTrue();
+        assertThat(CloudTrailKeyFilter.parseList(" 123456789012, ,210987654321 ")).containsExactly("123456789012", "210987654321");
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSNSNotification;
+import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSQSClient;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport2;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CloudTrailSubscriberTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private CloudtrailSQSClient sqsClient;
+    @Mock
+    private S3Reader s3Reader;
+    @Mock
+    private MessageInput sourceInput;
+    @Mock
+    private InputFailureRecorder inputFailureRecorder;
+    @Mock
+    private ThrottleableTransport2 transport;
+
+    @Test
+    public void returnsPrefetchedNotificationsWhileThrottled() throws Exception {
+        final CloudtrailSNSNotification first = notification("first");
+        final CloudtrailSNSNotification prefetched = notification("prefetched");
+        final CompletableFuture<List<CloudtrailSNSNotification>> prefetch = new CompletableFuture<>();
+        final AtomicInteger receives = new AtomicInteger();
+        when(sqsClient.receiveNotifications()).thenAnswer(invocation -> receives.incrementAndGet() == 1
+                ? CompletableFuture.completedFuture(ImmutableList.of(first))
+                : prefetch);
+        when(sqsClient.sampleQueueDepth()).thenReturn(CompletableFuture.completedFuture(null));
+
+        // The journal fills up while the next batch is being received.
+        when(transport.isThrottled()).thenAnswer(invocation -> receives.get() >= 2);
+        when(transport.blockUntilUnthrottled(anyLong(), any())).thenAnswer(invocation -> {
+            Thread.sleep(10);
+            return false;
+        });
+
+        final CloudTrailSubscriber subscriber = new CloudTrailSubscriber(sqsClient, s3Reader, sourceInput,
+                new ObjectMapper(), inputFailureRecorder, 1, 20, 1024, 1024, null,
+                new CompletedObjectCache(100, 1, TimeUnit.HOURS), null, transport,
+                new CloudTrailMetrics(new MetricRegistry()));
+        subscriber.start();
+        try {
+            verify(transport, timeout(5000).atLeastOnce()).blockUntilUnthrottled(anyLong(), any());
+
+            // The batch arrives only after the subscriber started to wait for the journal.
+            prefetch.complete(ImmutableList.of(prefetched));
+
+            verify(sqsClient, timeout(5000)).returnMessages(argThat(handles -> handles.contains("handle-prefetched")));
+            verify(sqsClient, timeout(5000).atLeastOnce()).returnMessages(argThat(handles -> handles.contains("handle-first")));
+        } finally {
+            subscriber.terminate();
+            subscriber.join(TimeUnit.SECONDS.toMillis(15));
+        }
+
+        assertThat(subscriber.isAlive()).isFalse();
+        assertThat(receives.get()).isEqualTo(2);
+        verify(s3Reader, never()).getObject(anyString(), anyString());
+        verify(sqsClient, never()).deleteMessages(any());
+        verify(sqsClient, atLeastOnce()).close();
+    }
+
+    @Test
+    public void cancelsPendingReceiveOnTermination() throws Exception {
+        final CompletableFuture<List<CloudtrailSNSNotification>> receive = new CompletableFuture<>();
+        when(sqsClient.receiveNotifications()).thenReturn(receive);
+        when(sqsClient.sampleQueueDepth()).thenReturn(CompletableFuture.completedFuture(null));
+
+        final CloudTrailSubscriber subscriber = new CloudTrailSubscriber(sqsClient, s3Reader, sourceInput,
+                new ObjectMapper(), inputFailureRecorder, 1, 20, 1024, 1024, null,
+                new CompletedObjectCache(100, 1, TimeUnit.HOURS), null, transport,
+                new CloudTrailMetrics(new MetricRegistry()));
+        subscriber.start();
+        verify(sqsClient, timeout(5000)).receiveNotifications();
+
+        subscriber.terminate();
+        subscriber.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertThat(subscriber.isAlive()).isFalse();
+        assertThat(receive.isCancelled()).isTrue();
+        verify(inputFailureRecorder, never()).setFailing(any(), anyString(), any());
+        verify(sqsClient).close();
+    }
+
+    private static CloudtrailSNSNotification notification(String key) {
+        return new CloudtrailSNSNotification("handle-" + key, "bucket", key, 16L, "etag") {
+        };
+    }
+}
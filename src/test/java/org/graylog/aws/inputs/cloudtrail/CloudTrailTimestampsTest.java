@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CloudTrailTimestampsTest {
+    @Test
+    public void parsesCloudTrailEventTimes() {
+        assertThat(CloudTrailTimestamps.parse("2020-08-19T14:12:28Z"))
+                .isEqualTo(new DateTime(2020, 8, 19, 14, 12, 28, DateTimeZone.UTC));
+        assertThat(CloudTrailTimestamps.parse("1970-01-01T00:00:00Z").getMillis()).isZero();
+        assertThat(CloudTrailTimestamps.epochMillis("2020-08-19T14:12:28Z"))
+                .isEqualTo(new DateTime(2020, 8, 19, 14, 12, 28, DateTimeZone.UTC).getMillis());
+    }
+
+    @Test
+    public void matchesJodaForEveryDay() {
+        DateTime day = new DateTime(1999, 1, 1, 23, 59, 59, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2101, 1, 1, 0, 0, DateTimeZone.UTC);
+        while (day.isBefore(end)) {
+            final String timestamp = day.toString("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            assertThat(CloudTrailTimestamps.parse(timestamp)).as(timestamp).isEqualTo(DateTime.parse(timestamp));
+            day = day.plusDays(1);
+        }
+    }
+
+    @Test
+    public void fallsBackToIso8601ForOtherFormats() {
+        assertThat(CloudTrailTimestamps.epochMillis("2020-08-19T14:12:28.123Z"))
+                .isEqualTo(new DateTime(2020, 8, 19, 14, 12, 28, 123, DateTimeZone.UTC).getMillis());
+        assertThat(CloudTrailTimestamps.epochMillis("2020-08-19T16:12:28+02:00"))
+                .isEqualTo(new DateTime(2020, 8, 19, 14, 12, 28, DateTimeZone.UTC).getMillis());
+        assertThat(CloudTrailTimestamps.epochMillis("2020-02-29T00:00:00Z") - CloudTrailTimestamps.epochMillis("2020-02-28T00:00:00Z"))
+                .isEqualTo(TimeUnit.DAYS.toMillis(1));
+    }
+
+    @Test
+    public void rejectsInvalidTimestamps() {
+        assertThatThrownBy(() -> CloudTrailTimestamps.parse("2021-02-29T00:00:00Z")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CloudTrailTimestamps.parse("2020-08-19T24:00:00Z")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CloudTrailTimestamps.parse("2020-08-1xT14:12:28Z")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CloudTrailTimestamps.epochMillis("not a time")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletedObjectCacheTest {
+    private final CompletedObjectCache cache = new CompletedObjectCache(10, 1, TimeUnit.HOURS);
+
+    @Test
+    public void remembersCompletedObjects() {
+        cache.completed("bucket", "key", "etag");
+
+        assertThat(cache.isCompleted("bucket", "key", "etag")).isTrue();
+        assertThat(cache.isCompleted("bucket", "key", null)).isTrue();
+        assertThat(cache.isCompleted("bucket", "other-key", "etag")).isFalse();
+        assertThat(cache.isCompleted("other-bucket", "key", "etag")).isFalse();
+    }
+
+    @Test
+    public void tellsVersionsApartByETag() {
+        cache.completed("bucket", "key", "etag");
+
+        assertThat(cache.isCompleted("bucket", "key", "other-etag")).isFalse();
+    }
+
+    @Test
+    public void matchesAnyVersionIfETagIsUnknown() {
+        cache.completed("bucket", "key", null);
+
+        assertThat(cache.isCompleted("bucket", "key", "etag")).isTrue();
+    }
+}
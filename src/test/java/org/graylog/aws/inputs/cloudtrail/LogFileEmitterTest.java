@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog.aws.inputs.cloudtrail.messages.TreeReader;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class LogFileEmitterTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private MessageInput input;
+
+    private final CloudTrailMetrics metrics = new CloudTrailMetrics(new MetricRegistry());
+
+    @Test
+    public void recordsMetricsOfEmittedLogFile() throws Exception {
+        final int records = new LogFileEmitter(new TreeReader(new ObjectMapper()), null, input, metrics)
+                .emit(gzip("{\"Records\":[{\"eventID\":\"1\"},{\"eventID\":\"2\"}]}"));
+
+        assertThat(records).isEqualTo(2);
+        verify(input, times(2)).processRawMessage(any(RawMessage.class));
+        assertThat(metrics.records().getCount()).isEqualTo(2);
+        assertThat(metrics.recordsPerObject().getSnapshot().getValues()).containsExactly(2);
+        assertThat(metrics.decompressionTime().getCount()).isEqualTo(1);
+        assertThat(metrics.parseTime().getCount()).isEqualTo(1);
+        assertThat(metrics.parseFailures().getCount()).isZero();
+    }
+
+    @Test
+    public void recordsLagPerRegion() throws Exception {
+        final Instant eventTime = Instant.now().minus(10, ChronoUnit.MINUTES);
+        new LogFileEmitter(new TreeReader(new ObjectMapper()), null, input, metrics).emit(gzip("{\"Records\":["
+                + "{\"eventID\":\"1\",\"eventTime\":\"" + eventTime + "\",\"awsRegion\":\"eu-west-1\"},"
+                + "{\"eventID\":\"2\",\"eventTime\":\"" + eventTime + "\",\"awsRegion\":\"us-east-1\"},"
+                + "{\"eventID\":\"3\",\"eventTime\":\"" + eventTime + "\",\"awsRegion\":\"us-east-1\"},"
+                + "{\"eventID\":\"4\",\"eventTime\":\"not a time\",\"awsRegion\":\"us-east-1\"}]}"));
+
+        assertThat(metrics.recordLag("eu-west-1").getCount()).isEqualTo(1);
+        assertThat(metrics.recordLag("us-east-1").getCount()).isEqualTo(2);
+        assertThat(metrics.recordLag("us-east-1").getSnapshot().getMin())
+                .isGreaterThanOrEqualTo(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @Test
+    public void doesNotDropRecordsThatFailedToBeProcessed() throws Exception {
+        final RecordDeduplicator deduplicator = new RecordDeduplicator(1000, 0.0001, 10, TimeUnit.MINUTES, new Meter());
+        final LogFileEmitter emitter = new LogFileEmitter(new TreeReader(new ObjectMapper()), deduplicator, input, metrics);
+        doThrow(new IllegalStateException("Journal full")).doNothing().when(input).processRawMessage(any(RawMessage.class));
+
+        assertThatThrownBy(() -> emitter.emit(gzip("{\"Records\":[{\"eventID\":\"1\"}]}")))
+                .isInstanceOf(IllegalStateException.class);
+        emitter.emit(gzip("{\"Records\":[{\"eventID\":\"1\"}]}"));
+        emitter.emit(gzip("{\"Records\":[{\"eventID\":\"1\"}]}"));
+
+        verify(input, times(2)).processRawMessage(any(RawMessage.class));
+        assertThat(metrics.records().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void countsParseFailures() {
+        final LogFileEmitter emitter = new LogFileEmitter(new TreeReader(new ObjectMapper()), null, input, metrics);
+
+        assertThatThrownBy(() -> emitter.emit(gzip("this is not JSON"))).isInstanceOf(JsonParseException.class);
+
+        assertThat(metrics.parseFailures().getCount()).isEqualTo(1);
+        assertThat(metrics.records().getCount()).isZero();
+    }
+
+    private static InputStream gzip(String logFile) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(logFile.getBytes(StandardCharsets.UTF_8));
+        }
+        return new ByteArrayInputStream(compressed.toByteArray());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.graylog.aws.inputs.cloudtrail.notifications.CloudtrailSNSNotification;
+import org.graylog.aws.inputs.cloudtrail.notifications.SQSAckTracker;
+import org.graylog.aws.s3.S3Reader;
+import org.graylog2.plugin.InputFailureRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class NotificationPipelineTest {
+    private static final int SIZE = 16;
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private S3Reader s3Reader;
+    @Mock
+    private LogFileEmitter logFileEmitter;
+    @Mock
+    private SQSAckTracker ackTracker;
+    @Mock
+    private InputFailureRecorder inputFailureRecorder;
+
+    private final AtomicBoolean throttled = new AtomicBoolean(false);
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private NotificationPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        lenient().when(s3Reader.getObject(eq("bucket"), anyString())).thenAnswer(invocation -> logFile());
+        pipeline = new NotificationPipeline(1, 1024, 1024, null, new CompletedObjectCache(100, 1, TimeUnit.HOURS),
+                s3Reader, logFileEmitter, ackTracker, inputFailureRecorder, throttled::get,
+                new CloudTrailMetrics(metricRegistry));
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void acknowledgesNotificationOnlyAfterItHasBeenEmitted() throws Exception {
+        final CountDownLatch emitting = new CountDownLatch(1);
+        final CountDownLatch emitted = new CountDownLatch(1);
+        when(logFileEmitter.emit(any())).thenAnswer(invocation -> {
+            emitting.countDown();
+            emitted.await();
+            return 1;
+        });
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+        assertThat(emitting.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(ackTracker, never()).succeeded(any());
+
+        emitted.countDown();
+
+        verify(ackTracker, timeout(5000)).succeeded(n);
+        final InOrder inOrder = inOrder(logFileEmitter, ackTracker);
+        inOrder.verify(logFileEmitter).emit(any());
+        inOrder.verify(ackTracker).succeeded(n);
+    }
+
+    @Test
+    public void releasesReadAheadBudgetAfterLogFileHasBeenEmitted() throws Exception {
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+
+        verify(ackTracker, timeout(5000)).succeeded(n);
+        pipeline.shutdown();
+        assertThat(readAheadBytes()).isZero();
+    }
+
+    @Test
+    public void releasesReadAheadBudgetIfLogFileCannotBeEmitted() throws Exception {
+        when(logFileEmitter.emit(any())).thenThrow(new IOException("Not in GZIP format"));
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+
+        verify(ackTracker, timeout(5000)).failed(n);
+        pipeline.shutdown();
+        verify(ackTracker, never()).succeeded(any());
+        assertThat(readAheadBytes()).isZero();
+    }
+
+    @Test
+    public void releasesReadAheadBudgetIfLogFileCannotBeHandedOver() throws Exception {
+        // The download swallows the interrupt of the shutdown, so it finishes after the emit stage has been stopped.
+        final CountDownLatch downloading = new CountDownLatch(1);
+        final CountDownLatch downloaded = new CountDownLatch(1);
+        when(s3Reader.getObject(eq("bucket"), anyString())).thenAnswer(invocation -> {
+            downloading.countDown();
+            Uninterruptibles.awaitUninterruptibly(downloaded);
+            Thread.interrupted();
+            return logFile();
+        });
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+        assertThat(downloading.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(readAheadBytes()).isEqualTo(SIZE);
+
+        final Thread shutdown = new Thread(pipeline::shutdown);
+        shutdown.start();
+        while (shutdown.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+        downloaded.countDown();
+        shutdown.join(TimeUnit.SECONDS.toMillis(5));
+
+        verify(ackTracker).failed(n);
+        verify(inputFailureRecorder).setFailing(eq(NotificationPipeline.class), anyString(), any(RejectedExecutionException.class));
+        verifyNoInteractions(logFileEmitter);
+        assertThat(readAheadBytes()).isZero();
+    }
+
+    @Test
+    public void returnsNotificationsWhileThrottled() throws Exception {
+        throttled.set(true);
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+
+        verify(ackTracker, timeout(5000)).returned(n);
+        pipeline.shutdown();
+        verifyNoInteractions(s3Reader, logFileEmitter);
+        assertThat(readAheadBytes()).isZero();
+    }
+
+    @Test
+    public void leavesNotificationsUnacknowledgedOnShutdown() throws Exception {
+        final CountDownLatch emitting = new CountDownLatch(1);
+        when(logFileEmitter.emit(any())).thenAnswer(invocation -> {
+            emitting.countDown();
+            new CountDownLatch(1).await();
+            return 1;
+        });
+        final CloudtrailSNSNotification n = notification("key");
+
+        assertThat(pipeline.offer(n, 1, TimeUnit.SECONDS)).isTrue();
+        assertThat(emitting.await(5, TimeUnit.SECONDS)).isTrue();
+
+        pipeline.shutdown();
+
+        verify(ackTracker, never()).succeeded(any());
+        verify(ackTracker, never()).returned(any());
+    }
+
+    private long readAheadBytes() {
+        return (Long) metricRegistry.getGauges().get("read_ahead_bytes").getValue();
+    }
+
+    private static CloudtrailSNSNotification notification(String key) {
+        return new CloudtrailSNSNotification("handle-" + key, "bucket", key, (long) SIZE, "etag") {
+        };
+    }
+
+    private static S3Object logFile() {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(SIZE);
+        metadata.setHeader("ETag", "etag");
+        final S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new ByteArrayInputStream(new byte[SIZE]));
+        return object;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ObjectSpoolTest {
+    private static final byte[] CONTENT = "compressed".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private ObjectSpool spool;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder().toPath();
+        spool = new ObjectSpool(directory);
+    }
+
+    @Test
+    public void storesAndOpensObjects() throws IOException {
+        try (InputStream stored = spool.store("bucket", "key", "etag", new ByteArrayInputStream(CONTENT))) {
+            assertThat(IOUtils.toByteArray(stored)).isEqualTo(CONTENT);
+        }
+
+        try (InputStream spooled = spool.open("bucket", "key", "etag")) {
+            assertThat(spooled).isNotNull();
+            assertThat(IOUtils.toByteArray(spooled)).isEqualTo(CONTENT);
+        }
+        try (InputStream spooled = spool.open("bucket", "key", null)) {
+            assertThat(spooled).isNotNull();
+        }
+        assertThat(spool.open("bucket", "other-key", null)).isNull();
+    }
+
+    @Test
+    public void discardsOutdatedObjects() throws IOException {
+        spool.store("bucket", "key", "etag", new ByteArrayInputStream(CONTENT)).close();
+
+        assertThat(spool.open("bucket", "key", "other-etag")).isNull();
+        assertThat(spool.open("bucket", "key", null)).isNull();
+    }
+
+    @Test
+    public void removesObjects() throws IOException {
+        spool.store("bucket", "key", "etag", new ByteArrayInputStream(CONTENT)).close();
+
+        spool.remove("bucket", "key");
+
+        assertThat(spool.open("bucket", "key", "etag")).isNull();
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    @Test
+    public void purgesOldAndTemporaryFiles() throws IOException {
+        spool.store("bucket", "old", "etag", new ByteArrayInputStream(CONTENT)).close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+            }
+        }
+        spool.store("bucket", "new", "etag", new ByteArrayInputStream(CONTENT)).close();
+        Files.createFile(directory.resolve("leftover.tmp"));
+
+        spool.purge(Duration.ofDays(1));
+
+        assertThat(spool.open("bucket", "old", null)).isNull();
+        try (InputStream spooled = spool.open("bucket", "new", null)) {
+            assertThat(spooled).isNotNull();
+        }
+        assertThat(directory.resolve("leftover.tmp")).doesNotExist();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReceiveBackoffTest {
+    @Test
+    public void doublesDelayUpToMaximum() {
+        final ReceiveBackoff backoff = new ReceiveBackoff(250, 1000);
+
+        assertThat(backoff.nextDelayMillis()).isEqualTo(250);
+        assertThat(backoff.nextDelayMillis()).isEqualTo(500);
+        assertThat(backoff.nextDelayMillis()).isEqualTo(1000);
+        assertThat(backoff.nextDelayMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    public void resetStartsOverWithInitialDelay() {
+        final ReceiveBackoff backoff = new ReceiveBackoff(250, 1000);
+        backoff.nextDelayMillis();
+        backoff.nextDelayMillis();
+
+        backoff.reset();
+
+        assertThat(backoff.nextDelayMillis()).isEqualTo(250);
+    }
+}
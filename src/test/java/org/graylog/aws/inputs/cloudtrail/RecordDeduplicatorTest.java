@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecordDeduplicatorTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final Meter duplicates = new Meter();
+    private final RecordDeduplicator deduplicator = new RecordDeduplicator(1000, 0.0001, 10, TimeUnit.MINUTES, duplicates, ticker);
+
+    @Test
+    public void dropsRepeatedEventIds() {
+        assertThat(process("event-1")).isTrue();
+        assertThat(process("event-2")).isTrue();
+        assertThat(process("event-1")).isFalse();
+        assertThat(process("event-1")).isFalse();
+
+        assertThat(duplicates.getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotRememberEventIdsThatHaveOnlyBeenChecked() {
+        assertThat(deduplicator.isDuplicate("event-1")).isFalse();
+        assertThat(deduplicator.isDuplicate("event-1")).isFalse();
+
+        deduplicator.markSeen("event-1");
+        assertThat(deduplicator.isDuplicate("event-1")).isTrue();
+    }
+
+    @Test
+    public void neverDropsRecordsWithoutEventId() {
+        assertThat(process(null)).isTrue();
+        assertThat(process(null)).isTrue();
+
+        assertThat(duplicates.getCount()).isZero();
+    }
+
+    @Test
+    public void remembersEventIdsForAtLeastHalfTheWindowAfterTheyHaveBeenProcessed() {
+        assertThat(process("event-1")).isTrue();
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        assertThat(process("event-2")).isTrue();
+        assertThat(process("event-1")).isFalse();
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        assertThat(process("event-3")).isTrue();
+        assertThat(process("event-2")).isFalse();
+        assertThat(process("event-1")).isTrue();
+    }
+
+    /**
+     * @return {@code true} if the record has been processed, {@code false} if it has been dropped
+     */
+    private boolean process(String eventId) {
+        if (deduplicator.isDuplicate(eventId)) {
+            return false;
+        }
+        deduplicator.markSeen(eventId);
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.json;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RawJsonTest {
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final ObjectReader jsonReader = objectMapper.readerFor(CloudTrailRecord.class)
+            .withAttribute(RawJson.Format.class, RawJson.Format.JSON);
+    private final ObjectReader legacyReader = objectMapper.readerFor(CloudTrailRecord.class)
+            .withAttribute(RawJson.Format.class, RawJson.Format.LEGACY);
+
+    @Test
+    public void keepsValuesAsCompactJson() throws Exception {
+        final CloudTrailRecord record = jsonReader.readValue("{" +
+                "\"requestParameters\": {\"bucketName\": \"logs\", \"keys\": [1, 2], \"nested\": {\"a\": null}}," +
+                "\"additionalEventData\": {\"MFAUsed\": \"Yes\"}," +
+                "\"eventName\": \"GetObject\"}");
+
+        assertThat(record.getFullMessage()).isEqualTo("{\"bucketName\":\"logs\",\"keys\":[1,2],\"nested\":{\"a\":null}}");
+        assertThat(record.additionalEventData.format(false)).isEqualTo("{\"MFAUsed\":\"Yes\"}");
+        assertThat(record.eventName).isEqualTo("GetObject");
+    }
+
+    @Test
+    public void bindsValuesInLegacyFormat() throws Exception {
+        final String json = "{" +
+                "\"requestParameters\": {\"bucketName\": \"logs\", \"keys\": [1, 2]}," +
+                "\"additionalEventData\": {\"MFAUsed\": \"Yes\", \"MobileVersion\": \"No\"}}";
+
+        // Without the reader attribute, values are bound, too.
+        final List<CloudTrailRecord> records = ImmutableList.of(
+                legacyReader.readValue(json), objectMapper.readValue(json, CloudTrailRecord.class));
+        for (CloudTrailRecord record : records) {
+            assertThat(record.getFullMessage()).isEqualTo("[bucketName=logs, keys=[1, 2]]");
+            assertThat(record.additionalEventData.format(false)).isEqualTo("{MFAUsed=Yes, MobileVersion=No}");
+        }
+    }
+
+    @Test
+    public void readsKnownResponseElementsAndSkipsTheRest() throws Exception {
+        final String json = "{\"responseElements\": {" +
+                "\"instanceId\": \"i-123\"," +
+                "\"instancesSet\": {\"items\": [{\"instanceId\": \"i-456\", \"tags\": [{\"key\": \"a\"}]}]}," +
+                "\"status\": \"attaching\"}}";
+
+        for (ObjectReader reader : ImmutableList.of(jsonReader, legacyReader)) {
+            final CloudTrailRecord record = reader.readValue(json);
+            assertThat(record.responseElements.instanceId).isEqualTo("i-123");
+            assertThat(record.responseElements.status).isEqualTo("attaching");
+        }
+    }
+
+    @Test
+    public void skipsMissingAndEmptyRequestParameters() throws Exception {
+        assertThat(jsonReader.<CloudTrailRecord>readValue("{\"requestParameters\": null}").getFullMessage()).isNull();
+        assertThat(jsonReader.<CloudTrailRecord>readValue("{\"requestParameters\": {}}").getFullMessage()).isNull();
+        assertThat(legacyReader.<CloudTrailRecord>readValue("{\"requestParameters\": {}}").getFullMessage()).isNull();
+        assertThat(legacyReader.<CloudTrailRecord>readValue("{}").getFullMessage()).isNull();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.messages;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeReaderTest {
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Test
+    public void readsAllRecordsOfLogFile() throws Exception {
+        final String logFile = "{\"Records\":[" +
+                "{\"eventID\":\"1\",\"eventName\":\"ConsoleLogin\",\"userIdentity\":{\"userName\":\"some.user\"}}," +
+                "{\"eventID\":\"2\",\"eventName\":\"DescribeInstances\",\"requestParameters\":{\"filterSet\":{}}}" +
+                "]}";
+
+        final List<RawRecord> records = new ArrayList<>();
+        final int count = new TreeReader(objectMapper).read(stream(logFile), records::add);
+
+        assertThat(count).isEqualTo(2);
+        assertThat(records).extracting(RawRecord::getEventId).containsExactly("1", "2");
+
+        final JsonNode first = objectMapper.readTree(records.get(0).getPayload());
+        assertThat(first.path("userIdentity").path("userName").asText()).isEqualTo("some.user");
+    }
+
+    @Test
+    public void keepsFieldsThatAreNotPartOfTheModel() throws Exception {
+        final String logFile = "{\"Records\":[{\"eventTime\":\"2020-08-19T14:12:28Z\",\"awsRegion\":\"eu-west-1\"," +
+                "\"tlsDetails\":{\"tlsVersion\":\"TLSv1.2\"},\"resources\":[{\"ARN\":\"arn:aws:s3:::bucket\"}],\"readOnly\":true}]}";
+
+        final List<RawRecord> records = new ArrayList<>();
+        new TreeReader(objectMapper).read(stream(logFile), records::add);
+
+        assertThat(records).hasSize(1);
+        final RawRecord record = records.get(0);
+        assertThat(record.getEventId()).isNull();
+        assertThat(record.getEventTime()).isEqualTo("2020-08-19T14:12:28Z");
+        assertThat(record.getAwsRegion()).isEqualTo("eu-west-1");
+
+        final JsonNode payload = objectMapper.readTree(record.getPayload());
+        assertThat(payload.path("tlsDetails").path("tlsVersion").asText()).isEqualTo("TLSv1.2");
+        assertThat(payload.path("resources").get(0).path("ARN").asText()).isEqualTo("arn:aws:s3:::bucket");
+        assertThat(payload.path("readOnly").asBoolean()).isTrue();
+    }
+
+    @Test
+    public void skipsUnknownTopLevelFields() throws Exception {
+        final String logFile = "{\"Foo\":{\"Records\":[{\"eventID\":\"x\"}]},\"Records\":[{\"eventID\":\"1\"}],\"Bar\":[1,2]}";
+
+        final List<RawRecord> records = new ArrayList<>();
+        final int count = new TreeReader(objectMapper).read(stream(logFile), records::add);
+
+        assertThat(count).isEqualTo(1);
+        assertThat(records).extracting(RawRecord::getEventId).containsExactly("1");
+    }
+
+    @Test
+    public void readsEmptyLogFile() throws Exception {
+        final List<RawRecord> records = new ArrayList<>();
+        final int count = new TreeReader(objectMapper).read(stream("{\"Records\":[]}"), records::add);
+
+        assertThat(count).isZero();
+        assertThat(records).isEmpty();
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -21,15 +21,30 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 public class CloudtrailSNSNotificationParserTest {
     private final ObjectMapper objectMapper = new ObjectMapper()
             .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
+    private static final String S3_EVENT = "{\"Records\":[{" +
+            "\"eventVersion\":\"2.1\"," +
+            "\"eventSource\":\"aws:s3\"," +
+            "\"awsRegion\":\"eu-west-1\"," +
+            "\"eventTime\":\"2014-09-27T16:27:41.258Z\"," +
+            "\"eventName\":\"ObjectCreated:Put\"," +
+            "\"s3\":{" +
+            "\"s3SchemaVersion\":\"1.0\"," +
+            "\"bucket\":{\"name\":\"cloudtrailbucket\",\"arn\":\"arn:aws:s3:::cloudtrailbucket\"}," +
+            "\"object\":{\"key\":\"example/AWSLogs/459220251735/CloudTrail/eu-west-1/2014/09/27/459220251735_CloudTrail_eu-west-1_20140927T1625Z_UPwzr7ft2mf0Q1SS.json.gz\",\"size\":1024,\"eTag\":\"d41d8cd98f00b204e9800998ecf8427e\",\"sequencer\":\"0055AED6DCD90281E5\"}" +
+            "}}]}";
+
     @Test
     public void testParse() throws Exception {
         final Message message = new Message()
@@ -91,8 +106,8 @@ public class CloudtrailSNSNotificationParserTest {
 
         CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
 
-        List<CloudtrailSNSNotification> notifications = parser.parse(message);
-        assertTrue(notifications.isEmpty());
+        // Not a CloudTrail notification, so it is rejected and left on the queue instead of being deleted.
+        assertThrows(IOException.class, () -> parser.parse(message));
     }
 
     @Test
@@ -124,4 +139,110 @@ public class CloudtrailSNSNotificationParserTest {
         assertEquals(notification2.getS3Bucket(), "cloudtrailbucket");
         assertEquals(notification2.getS3ObjectKey(), "example/AWSLogs/459220251735/CloudTrail/eu-west-1/2014/09/27/459220251999_CloudTrail2_eu-west-1_20140927T1620Z_Nk2SdmlEzA0gDpPr.json.gz");
     }
+
+    @Test
+    public void testParseValidationMessage() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"Type\" : \"Notification\", \"Message\" : \"CloudTrail validation message.\"}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertTrue(parser.parse(message).isEmpty());
+    }
+
+    @Test
+    public void testParseWithoutMessage() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"Type\" : \"Notification\", \"MessageId\" : \"55508fe9-870b-590c-960f-c34960b669f0\"}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertThrows(IOException.class, () -> parser.parse(message));
+    }
+
+    @Test
+    public void testParseRawDelivery() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"s3Bucket\":\"cloudtrailbucket\",\"s3ObjectKey\":[\"example/AWSLogs/459220251735/CloudTrail/eu-west-1/2014/09/27/459220251735_CloudTrail_eu-west-1_20140927T1625Z_UPwzr7ft2mf0Q1SS.json.gz\"]}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        List<CloudtrailSNSNotification> notifications = parser.parse(message);
+        assertEquals(1, notifications.size());
+
+        CloudtrailSNSNotification notification = notifications.get(0);
+
+        assertEquals("cloudtrailbucket", notification.getS3Bucket());
+        assertEquals("example/AWSLogs/459220251735/CloudTrail/eu-west-1/2014/09/27/459220251735_CloudTrail_eu-west-1_20140927T1625Z_UPwzr7ft2mf0Q1SS.json.gz", notification.getS3ObjectKey());
+        assertNull(notification.getS3ObjectSize());
+    }
+
+    @Test
+    public void testParseS3EventNotification() throws Exception {
+        final Message message = new Message()
+                .withBody(S3_EVENT);
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        List<CloudtrailSNSNotification> notifications = parser.parse(message);
+        assertEquals(1, notifications.size());
+
+        CloudtrailSNSNotification notification = notifications.get(0);
+
+        assertEquals("cloudtrailbucket", notification.getS3Bucket());
+        assertEquals("example/AWSLogs/459220251735/CloudTrail/eu-west-1/2014/09/27/459220251735_CloudTrail_eu-west-1_20140927T1625Z_UPwzr7ft2mf0Q1SS.json.gz", notification.getS3ObjectKey());
+        assertEquals(Long.valueOf(1024L), notification.getS3ObjectSize());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", notification.getS3ObjectETag());
+    }
+
+    @Test
+    public void testParseS3EventNotificationInSNSEnvelope() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"Type\" : \"Notification\", \"Message\" : " + objectMapper.writeValueAsString(S3_EVENT) + "}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        List<CloudtrailSNSNotification> notifications = parser.parse(message);
+        assertEquals(1, notifications.size());
+        assertEquals(Long.valueOf(1024L), notifications.get(0).getS3ObjectSize());
+    }
+
+    @Test
+    public void testParseS3EventNotificationSkipsOtherEvents() throws Exception {
+        final Message message = new Message()
+                .withBody(S3_EVENT.replace("ObjectCreated:Put", "ObjectRemoved:Delete"));
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertTrue(parser.parse(message).isEmpty());
+    }
+
+    @Test
+    public void testParseS3TestEvent() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\",\"Time\":\"2014-09-27T16:27:41.258Z\",\"Bucket\":\"cloudtrailbucket\",\"RequestId\":\"5582815E1AEA5ADF\",\"HostId\":\"8cLeGAmw098X5cv4Zkwcmo8vvZa3eH3eKxsPzbB9wrR+YstdA6Knx4Ip8EXAMPLE\"}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertTrue(parser.parse(message).isEmpty());
+    }
+
+    @Test
+    public void testParseInvalidJson() throws Exception {
+        final Message message = new Message().withBody("this is not JSON");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertThrows(IOException.class, () -> parser.parse(message));
+    }
+
+    @Test
+    public void testParseSubscriptionConfirmation() throws Exception {
+        final Message message = new Message()
+                .withBody("{\"Type\" : \"SubscriptionConfirmation\", \"Message\" : \"You have chosen to subscribe to the topic.\"}");
+
+        CloudtrailSNSNotificationParser parser = new CloudtrailSNSNotificationParser(objectMapper);
+
+        assertThrows(IOException.class, () -> parser.parse(message));
+    }
 }
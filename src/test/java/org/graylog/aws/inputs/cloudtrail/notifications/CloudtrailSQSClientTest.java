@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.graylog.aws.inputs.cloudtrail.CloudTrailMetrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CloudtrailSQSClientTest {
+    private static final String QUEUE = "https://sqs.eu-west-1.amazonaws.com/123456789012/cloudtrail";
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private AmazonSQSAsync sqs;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deletesMessagesWithoutNotifications() {
+        receive(new Message().withReceiptHandle("handle-1")
+                        .withBody("{\"s3Bucket\":\"cloudtrailbucket\",\"s3ObjectKey\":[\"AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/log.json.gz\"]}"),
+                new Message().withReceiptHandle("handle-2")
+                        .withBody("{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\",\"Bucket\":\"cloudtrailbucket\"}"),
+                new Message().withReceiptHandle("handle-3")
+                        .withBody("{\"Type\":\"Notification\",\"Message\":\"CloudTrail validation message.\"}"));
+        when(sqs.deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), any(AsyncHandler.class))).thenAnswer(invocation -> {
+            final DeleteMessageBatchRequest request = invocation.getArgument(0);
+            invocation.<AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult>>getArgument(1)
+                    .onSuccess(request, new DeleteMessageBatchResult());
+            return CompletableFuture.completedFuture(new DeleteMessageBatchResult());
+        });
+
+        final List<CloudtrailSNSNotification> notifications = client().receiveNotifications().join();
+
+        assertThat(notifications).extracting(CloudtrailSNSNotification::getReceiptHandle).containsExactly("handle-1");
+        final ArgumentCaptor<DeleteMessageBatchRequest> deleted = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqs).deleteMessageBatchAsync(deleted.capture(), any(AsyncHandler.class));
+        assertThat(deleted.getValue().getEntries().stream()
+                .map(DeleteMessageBatchRequestEntry::getReceiptHandle)
+                .collect(Collectors.toList()))
+                .containsExactly("handle-2", "handle-3");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void leavesMessagesThatCannotBeParsedOnTheQueue() {
+        receive(new Message().withReceiptHandle("handle-1").withBody("this is not JSON"),
+                new Message().withReceiptHandle("handle-2")
+                        .withBody("{\"Type\":\"SubscriptionConfirmation\",\"Message\":\"You have chosen to subscribe to the topic.\"}"));
+        final CloudTrailMetrics metrics = new CloudTrailMetrics(new MetricRegistry());
+
+        assertThat(client(metrics).receiveNotifications().join()).isEmpty();
+        assertThat(metrics.parseFailures().getCount()).isEqualTo(2);
+        verify(sqs, never()).deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), any(AsyncHandler.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void keepsMessagesWithNotifications() {
+        receive(new Message().withReceiptHandle("handle-1")
+                .withBody("{\"s3Bucket\":\"cloudtrailbucket\",\"s3ObjectKey\":[\"AWSLogs/123456789012/CloudTrail/eu-west-1/2020/01/01/log.json.gz\"]}"));
+
+        assertThat(client().receiveNotifications().join()).hasSize(1);
+        verify(sqs, never()).deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), any(AsyncHandler.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void returnsDeletionsThatCanBeRetried() {
+        when(sqs.deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), any(AsyncHandler.class))).thenAnswer(invocation -> {
+            final DeleteMessageBatchRequest request = invocation.getArgument(0);
+            final DeleteMessageBatchResult result = new DeleteMessageBatchResult().withFailed(
+                    new BatchResultErrorEntry().withId("1").withCode("InternalError").withSenderFault(false),
+                    new BatchResultErrorEntry().withId("2").withCode("ReceiptHandleIsInvalid").withSenderFault(true));
+            invocation.<AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult>>getArgument(1)
+                    .onSuccess(request, result);
+            return CompletableFuture.completedFuture(result);
+        });
+
+        assertThat(client().deleteMessages(ImmutableList.of("handle-1", "handle-2", "handle-3")))
+                .containsExactly("handle-2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void returnsAllDeletionsOfAFailedBatchRequest() {
+        when(sqs.deleteMessageBatchAsync(any(DeleteMessageBatchRequest.class), any(AsyncHandler.class))).thenAnswer(invocation -> {
+            invocation.<AsyncHandler<DeleteMessageBatchRequest, DeleteMessageBatchResult>>getArgument(1)
+                    .onError(new AmazonSQSException("Service Unavailable"));
+            return CompletableFuture.completedFuture(null);
+        });
+
+        assertThat(client().deleteMessages(ImmutableList.of("handle-1", "handle-2")))
+                .containsExactly("handle-1", "handle-2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cancelsWaitingReceive() {
+        final CompletableFuture<ReceiveMessageResult> longPoll = new CompletableFuture<>();
+        when(sqs.receiveMessageAsync(any(ReceiveMessageRequest.class), any(AsyncHandler.class))).thenReturn(longPoll);
+
+        client().receiveNotifications().cancel(true);
+
+        assertThat(longPoll.isCancelled()).isTrue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void receive(Message... messages) {
+        final ReceiveMessageResult result = new ReceiveMessageResult().withMessages(messages);
+        when(sqs.receiveMessageAsync(any(ReceiveMessageRequest.class), any(AsyncHandler.class))).thenAnswer(invocation -> {
+            invocation.<AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult>>getArgument(1)
+                    .onSuccess(invocation.getArgument(0), result);
+            return CompletableFuture.completedFuture(result);
+        });
+    }
+
+    private CloudtrailSQSClient client() {
+        return client(new CloudTrailMetrics(new MetricRegistry()));
+    }
+
+    private CloudtrailSQSClient client(CloudTrailMetrics metrics) {
+        return new CloudtrailSQSClient(sqs, QUEUE, new ObjectMapper(), 20, 60, metrics);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SQSAckTrackerTest {
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private CloudtrailSQSClient sqsClient;
+
+    private SQSAckTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new SQSAckTracker(sqsClient);
+    }
+
+    @Test
+    public void deletesMessageOnceAfterAllObjectsSucceeded() {
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-1", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+
+        tracker.succeeded(first);
+        tracker.flush();
+        verify(sqsClient, never()).deleteMessages(any());
+
+        tracker.succeeded(second);
+        tracker.flush();
+        verify(sqsClient).deleteMessages(ImmutableList.of("handle-1"));
+        assertThat(tracker.inFlightReceiptHandles()).isEmpty();
+    }
+
+    @Test
+    public void keepsMessageIfOneObjectFailed() {
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-1", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+
+        tracker.failed(first);
+        tracker.succeeded(second);
+        tracker.flush();
+
+        verify(sqsClient, never()).deleteMessages(any());
+        assertThat(tracker.inFlightReceiptHandles()).isEmpty();
+    }
+
+    @Test
+    public void batchesDeletionsOfSeveralMessages() {
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-2", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+
+        tracker.succeeded(second);
+        tracker.succeeded(first);
+        tracker.flush();
+
+        verify(sqsClient).deleteMessages(ImmutableList.of("handle-2", "handle-1"));
+    }
+
+    @Test
+    public void returnsMessageOnceAllObjectsAreDone() {
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-1", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+
+        tracker.returned(first);
+        tracker.flush();
+        verify(sqsClient, never()).returnMessages(any());
+
+        tracker.succeeded(second);
+        tracker.flush();
+        verify(sqsClient).returnMessages(ImmutableList.of("handle-1"));
+        verify(sqsClient, never()).deleteMessages(any());
+        assertThat(tracker.inFlightReceiptHandles()).isEmpty();
+    }
+
+    @Test
+    public void notifiesListenerAboutDeletedObjects() {
+        final List<CloudtrailSNSNotification> deleted = new ArrayList<>();
+        final SQSAckTracker tracker = new SQSAckTracker(sqsClient, deleted::addAll);
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-1", "bucket", "key-2");
+        final CloudtrailSNSNotification third = new CloudtrailSNSNotification("handle-2", "bucket", "key-3");
+        tracker.track(ImmutableList.of(first, second, third));
+
+        tracker.succeeded(first);
+        tracker.succeeded(second);
+        tracker.failed(third);
+        tracker.flush();
+
+        assertThat(deleted).containsExactly(first, second);
+    }
+
+    @Test
+    public void retriesDeletionsThatFailed() {
+        final List<CloudtrailSNSNotification> deleted = new ArrayList<>();
+        final SQSAckTracker tracker = new SQSAckTracker(sqsClient, deleted::addAll);
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-2", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+        when(sqsClient.deleteMessages(ImmutableList.of("handle-1", "handle-2"))).thenReturn(ImmutableList.of("handle-2"));
+
+        tracker.succeeded(first);
+        tracker.succeeded(second);
+        tracker.flush();
+        assertThat(deleted).containsExactly(first);
+        assertThat(tracker.inFlightReceiptHandles()).containsExactly("handle-2");
+
+        tracker.flush();
+        verify(sqsClient).deleteMessages(ImmutableList.of("handle-2"));
+        assertThat(deleted).containsExactly(first, second);
+        assertThat(tracker.inFlightReceiptHandles()).isEmpty();
+    }
+
+    @Test
+    public void retriesDeletionsIfTheRequestFailed() {
+        final CloudtrailSNSNotification n = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        tracker.track(ImmutableList.of(n));
+        when(sqsClient.deleteMessages(ImmutableList.of("handle-1")))
+                .thenThrow(new IllegalStateException("Client is closed"))
+                .thenReturn(ImmutableList.of());
+
+        tracker.succeeded(n);
+        assertThatThrownBy(tracker::flush).isInstanceOf(IllegalStateException.class);
+        assertThat(tracker.inFlightReceiptHandles()).containsExactly("handle-1");
+
+        tracker.flush();
+        assertThat(tracker.inFlightReceiptHandles()).isEmpty();
+    }
+
+    @Test
+    public void keepsMessageInFlightUntilItIsDeleted() {
+        final CloudtrailSNSNotification first = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        final CloudtrailSNSNotification second = new CloudtrailSNSNotification("handle-2", "bucket", "key-2");
+        tracker.track(ImmutableList.of(first, second));
+
+        tracker.succeeded(first);
+        assertThat(tracker.inFlightReceiptHandles()).containsExactlyInAnyOrder("handle-1", "handle-2");
+
+        tracker.flush();
+        assertThat(tracker.inFlightReceiptHandles()).containsExactly("handle-2");
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.inputs.cloudtrail.notifications;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class VisibilityHeartbeatTest {
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private CloudtrailSQSClient sqsClient;
+
+    private SQSAckTracker tracker;
+    private VisibilityHeartbeat heartbeat;
+
+    @Before
+    public void setUp() {
+        // Beats every second.
+        when(sqsClient.getVisibilityTimeoutSeconds()).thenReturn(2);
+        tracker = new SQSAckTracker(sqsClient);
+        heartbeat = new VisibilityHeartbeat(tracker, sqsClient);
+    }
+
+    @After
+    public void tearDown() {
+        heartbeat.stop();
+    }
+
+    @Test
+    public void extendsVisibilityOfMessagesInFlight() {
+        tracker.track(ImmutableList.of(new CloudtrailSNSNotification("handle-1", "bucket", "key-1")));
+
+        heartbeat.start();
+
+        verify(sqsClient, timeout(5000)).extendVisibility(ImmutableList.of("handle-1"));
+    }
+
+    @Test
+    public void deletesProcessedMessagesBeforeExtendingVisibility() {
+        final CloudtrailSNSNotification done = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        tracker.track(ImmutableList.of(done, new CloudtrailSNSNotification("handle-2", "bucket", "key-2")));
+        tracker.succeeded(done);
+
+        heartbeat.start();
+
+        verify(sqsClient, timeout(5000)).deleteMessages(ImmutableList.of("handle-1"));
+        verify(sqsClient, timeout(5000)).extendVisibility(ImmutableList.of("handle-2"));
+    }
+
+    @Test
+    public void stopsExtendingMessagesThatAreNotInFlightAnymore() {
+        final CloudtrailSNSNotification returned = new CloudtrailSNSNotification("handle-1", "bucket", "key-1");
+        tracker.track(ImmutableList.of(returned));
+        tracker.returned(returned);
+
+        heartbeat.start();
+
+        verify(sqsClient, timeout(5000)).returnMessages(ImmutableList.of("handle-1"));
+        verify(sqsClient, after(1500).never()).extendVisibility(any());
+    }
+}
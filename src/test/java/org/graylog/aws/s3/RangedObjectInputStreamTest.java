@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.aws.s3;
+
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+public class RangedObjectInputStreamTest {
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private S3Reader s3Reader;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readsPartsInOrder() throws IOException {
+        when(s3Reader.getObjectRange(eq("bucket"), eq("key"), eq("etag"), anyLong(), anyLong()))
+                .thenAnswer(invocation -> part(invocation.getArgument(3), invocation.getArgument(4)));
+
+        try (InputStream stream = new RangedObjectInputStream(s3Reader, "bucket", "key", "etag",
+                Arrays.copyOf(CONTENT, 4), CONTENT.length, 3, 2, executor)) {
+            assertThat(IOUtils.toByteArray(stream)).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    public void failsIfPartCannotBeDownloaded() {
+        when(s3Reader.getObjectRange(eq("bucket"), eq("key"), eq("etag"), anyLong(), anyLong()))
+                .thenThrow(new RuntimeException("modified"));
+
+        final InputStream stream = new RangedObjectInputStream(s3Reader, "bucket", "key", "etag",
+                Arrays.copyOf(CONTENT, 4), CONTENT.length, 8, 2, executor);
+
+        assertThatThrownBy(() -> IOUtils.toByteArray(stream))
+                .isInstanceOf(IOException.class)
+                .hasRootCauseMessage("modified");
+    }
+
+    @Test
+    public void chargesPartsToBudgetUntilTheyHaveBeenRead() throws IOException {
+        when(s3Reader.getObjectRange(eq("bucket"), eq("key"), eq("etag"), anyLong(), anyLong()))
+                .thenAnswer(invocation -> part(invocation.getArgument(3), invocation.getArgument(4)));
+        final CountingBudget budget = new CountingBudget(8);
+
+        final InputStream stream = new RangedObjectInputStream(s3Reader, "bucket", "key", "etag",
+                Arrays.copyOf(CONTENT, 4), CONTENT.length, 4, 4, executor, budget);
+
+        // Only two of the four parts in the window fit into the budget.
+        assertThat(budget.inUse).isEqualTo(8);
+
+        assertThat(IOUtils.toByteArray(stream)).isEqualTo(CONTENT);
+        assertThat(budget.maxInUse).isLessThanOrEqualTo(8);
+
+        stream.close();
+        assertThat(budget.inUse).isZero();
+    }
+
+    @Test
+    public void fetchesNextPartEvenIfBudgetIsExhausted() throws IOException {
+        when(s3Reader.getObjectRange(eq("bucket"), eq("key"), eq("etag"), anyLong(), anyLong()))
+                .thenAnswer(invocation -> part(invocation.getArgument(3), invocation.getArgument(4)));
+        final CountingBudget budget = new CountingBudget(0);
+
+        try (InputStream stream = new RangedObjectInputStream(s3Reader, "bucket", "key", "etag",
+                Arrays.copyOf(CONTENT, 4), CONTENT.length, 4, 4, executor, budget)) {
+            assertThat(budget.inUse).isZero();
+            assertThat(IOUtils.toByteArray(stream)).isEqualTo(CONTENT);
+            assertThat(budget.maxInUse).isEqualTo(4);
+        }
+        assertThat(budget.inUse).isZero();
+    }
+
+    @Test
+    public void releasesPartsThatHaveNotBeenReadOnClose() throws IOException {
+        when(s3Reader.getObjectRange(eq("bucket"), eq("key"), eq("etag"), anyLong(), anyLong()))
+                .thenAnswer(invocation -> part(invocation.getArgument(3), invocation.getArgument(4)));
+        final CountingBudget budget = new CountingBudget(100);
+
+        final InputStream stream = new RangedObjectInputStream(s3Reader, "bucket", "key", "etag",
+                Arrays.copyOf(CONTENT, 4), CONTENT.length, 4, 2, executor, budget);
+        assertThat(stream.read(new byte[6])).isEqualTo(4);
+        assertThat(stream.read(new byte[6])).isEqualTo(4);
+        assertThat(budget.inUse).isEqualTo(12);
+
+        stream.close();
+
+        assertThat(budget.inUse).isZero();
+    }
+
+    private static S3Object part(long start, long end) {
+        final S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, (int) start, (int) end + 1)));
+        return object;
+    }
+
+    private static class CountingBudget implements RangedObjectInputStream.PartBudget {
+        private final long capacity;
+        private long inUse = 0;
+        private long maxInUse = 0;
+
+        private CountingBudget(long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean tryAcquire(long bytes) {
+            if (inUse + bytes > capacity) {
+                return false;
+            }
+            forceAcquire(bytes);
+            return true;
+        }
+
+        @Override
+        public void forceAcquire(long bytes) {
+            inUse += bytes;
+            maxInUse = Math.max(maxInUse, inUse);
+        }
+
+        @Override
+        public void release(long bytes) {
+            inUse -= bytes;
+        }
+    }
+}
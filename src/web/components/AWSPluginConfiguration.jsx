@@ -72,6 +72,17 @@ class AWSPluginConfiguration extends React.Component {
     };
   };
 
+  _onUpdateNumber = (field) => {
+    return (e) => {
+      const value = Number.parseInt(e.target.value, 10);
+      this._updateConfigField(field, Number.isNaN(value) ? null : value);
+    };
+  };
+
+  _numberValue = (value) => {
+    return value === null || value === undefined ? '' : value;
+  };
+
   _openModal = () => {
     this.setState({ awsConfigModal: true });
   };
@@ -141,6 +152,32 @@ class AWSPluginConfiguration extends React.Component {
           <dd>
             {config.secret_key ? '***********' : '[not set]'}
           </dd>
+
+          <dt>Max connections:</dt>
+          <dd>{config.client_max_connections ? config.client_max_connections : '[AWS SDK default]'}</dd>
+
+          <dt>Connection TTL:</dt>
+          <dd>{config.client_connection_ttl_seconds ? `${config.client_connection_ttl_seconds} seconds` : '[AWS SDK default]'}</dd>
+
+          <dt>Socket timeout:</dt>
+          <dd>{config.client_socket_timeout_seconds ? `${config.client_socket_timeout_seconds} seconds` : '[AWS SDK default]'}</dd>
+
+          <dt>Request timeout:</dt>
+          <dd>{config.client_request_timeout_seconds ? `${config.client_request_timeout_seconds} seconds` : '[AWS SDK default]'}</dd>
+
+          <dt>TCP keep-alive:</dt>
+          <dd>
+            {config.client_tcp_keep_alive === true
+              ? 'Enabled'
+              : 'Disabled'}
+          </dd>
+
+          <dt>Request retries:</dt>
+          <dd>
+            {config.client_max_error_retries !== null && config.client_max_error_retries !== undefined
+              ? config.client_max_error_retries
+              : '[AWS SDK default]'}
+          </dd>
         </dl>
 
         <IfPermitted permissions="clusterconfigentry:edit">
@@ -235,6 +272,60 @@ class AWSPluginConfiguration extends React.Component {
                    name="proxy_enabled"
                    checked={update.proxy_enabled}
                    onChange={this._onCheckboxClick('proxy_enabled', 'proxyEnabled')} />
+
+            <Input id="aws-client-max-connections"
+                   type="number"
+                   min="1"
+                   label="Max connections (optional)"
+                   help="Maximum number of open HTTP connections of each AWS client. Inputs that download many log files in parallel need more connections than the AWS SDK default of 50. Can be overridden per input."
+                   name="client_max_connections"
+                   value={this._numberValue(update.client_max_connections)}
+                   onChange={this._onUpdateNumber('client_max_connections')} />
+
+            <Input id="aws-client-connection-ttl"
+                   type="number"
+                   min="1"
+                   label="Connection TTL in seconds (optional)"
+                   help="How long pooled HTTP connections are reused before they are closed. By default connections are reused until they are closed by AWS."
+                   name="client_connection_ttl_seconds"
+                   value={this._numberValue(update.client_connection_ttl_seconds)}
+                   onChange={this._onUpdateNumber('client_connection_ttl_seconds')} />
+
+            <Input id="aws-client-socket-timeout"
+                   type="number"
+                   min="1"
+                   label="Socket timeout in seconds (optional)"
+                   help="How long to wait for data on an open connection. The AWS SDK default is 50 seconds."
+                   name="client_socket_timeout_seconds"
+                   value={this._numberValue(update.client_socket_timeout_seconds)}
+                   onChange={this._onUpdateNumber('client_socket_timeout_seconds')} />
+
+            <Input id="aws-client-request-timeout"
+                   type="number"
+                   min="1"
+                   label="Request timeout in seconds (optional)"
+                   help="How long an AWS request may take, not counting the download of S3 objects. Disabled by default."
+                   name="client_request_timeout_seconds"
+                   value={this._numberValue(update.client_request_timeout_seconds)}
+                   onChange={this._onUpdateNumber('client_request_timeout_seconds')} />
+
+            <Input id="aws-client-tcp-keep-alive"
+                   type="checkbox"
+                   ref={(elem) => { this.clientTcpKeepAlive = elem; }}
+                   label="Use TCP keep-alive?"
+                   help="When enabled, TCP keep-alive packets are sent on idle connections to AWS."
+                   name="client_tcp_keep_alive"
+                   checked={update.client_tcp_keep_alive === true}
+                   onChange={this._onCheckboxClick('client_tcp_keep_alive', 'clientTcpKeepAlive')} />
+
+            <Input id="aws-client-max-error-retries"
+                   type="number"
+                   min="0"
+                   label="Request retries (optional)"
+                   help="How often failed AWS requests are retried. The AWS SDK default depends on the service."
+                   name="client_max_error_retries"
+                   value={this._numberValue(update.client_max_error_retries)}
+                   onChange={this._onUpdateNumber('client_max_error_retries')} />
           </fieldset>
         </BootstrapModalForm>
       </div>